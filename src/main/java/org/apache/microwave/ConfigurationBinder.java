@@ -0,0 +1,283 @@
+package org.apache.microwave;
+
+import org.apache.catalina.Realm;
+import org.apache.commons.lang3.text.StrLookup;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.apache.xbean.recipe.ObjectRecipe;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableMap;
+
+// binds a configuration (microwave.properties, cli options) on a Builder in a single pass: keys are indexed once by their
+// first segment then each group goes to its target:
+// - <field>: a scalar Builder field of the same name (http/https/stop for the ports), converted to the field type
+// - properties.*, users.*, roles.*: builder properties, users and roles
+// - connector.*, client.*, accessLog.*, ...: copied as builder properties, read later by the container/cxf
+// - realm=<class> + realm.<property>, login.<property>, warmup.<name>.<property>: nested objects created with xbean recipes
+// - securityConstraint.<property> and/or securityConstraint.<name>.<property>, one constraint per name
+// - configurationCustomizer.<name>=<class> (or .<name>.class) + configurationCustomizer.<name>.<property>, applied last
+// names are sorted, numbers first in numeric order. ${key} placeholders are resolved from system properties then the configuration.
+final class ConfigurationBinder {
+    private static final Collection<String> CONTAINER_PREFIXES = asList(
+            "connector", "client", "accessLog", "slowRequest", "adaptiveExecutor", "http2", "sslHostConfig");
+    private static final Comparator<String> NAMES = (a, b) -> {
+        final boolean indexA = isIndex(a);
+        final boolean indexB = isIndex(b);
+        if (indexA && indexB) {
+            return a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);
+        }
+        return indexA ? -1 : (indexB ? 1 : a.compareTo(b));
+    };
+
+    private static volatile Map<String, Field> fields; // computed once, Builder instances are created for each microwave
+
+    private final Microwave.Builder builder;
+    private final List<String> unknownKeys = new ArrayList<>();
+
+    ConfigurationBinder(final Microwave.Builder builder) {
+        this.builder = builder;
+    }
+
+    // returns the keys which didn't match anything, sorted
+    List<String> bind(final Properties config) {
+        final StrSubstitutor substitutor = new StrSubstitutor(new StrLookup<String>() {
+            @Override
+            public String lookup(final String key) {
+                final String property = System.getProperty(key);
+                return property == null ? config.getProperty(key) : property;
+            }
+        });
+
+        final Map<String, Map<String, String>> groups = new HashMap<>();
+        for (final String key : config.stringPropertyNames()) {
+            String value = config.getProperty(key);
+            if (value.contains("${")) {
+                final String replaced = substitutor.replace(value);
+                if (!replaced.equals(value)) {
+                    config.setProperty(key, replaced); // callers can read the resolved value
+                    value = replaced;
+                }
+            }
+            final int dot = key.indexOf('.');
+            groups.computeIfAbsent(dot < 0 ? key : key.substring(0, dot), k -> new HashMap<>())
+                    .put(dot < 0 ? "" : key.substring(dot + 1), value);
+        }
+
+        Map<String, String> customizers = null;
+        for (final Map.Entry<String, Map<String, String>> group : groups.entrySet()) {
+            final String head = group.getKey();
+            final Map<String, String> values = group.getValue();
+            switch (head) {
+                case "properties":
+                    values.forEach((k, v) -> {
+                        if (k.isEmpty()) {
+                            unknownKeys.add(head);
+                        } else {
+                            builder.property(k, v);
+                        }
+                    });
+                    break;
+                case "users":
+                    values.forEach((k, v) -> {
+                        if (k.isEmpty()) {
+                            unknownKeys.add(head);
+                        } else {
+                            builder.user(k, v);
+                        }
+                    });
+                    break;
+                case "roles":
+                    values.forEach((k, v) -> {
+                        if (k.isEmpty()) {
+                            unknownKeys.add(head);
+                        } else {
+                            builder.role(k, v);
+                        }
+                    });
+                    break;
+                case "realm":
+                    bindRealm(values);
+                    break;
+                case "login":
+                    values.remove(""); // login=true is enough to get a default login config
+                    builder.loginConfig(Microwave.LoginConfigBuilder.class.cast(create(Microwave.LoginConfigBuilder.class.getName(), values)));
+                    break;
+                case "warmup":
+                    bindWarmups(values);
+                    break;
+                case "securityConstraint":
+                    bindSecurityConstraints(values);
+                    break;
+                case "configurationCustomizer":
+                    customizers = values;
+                    break;
+                default:
+                    final boolean container = CONTAINER_PREFIXES.contains(head);
+                    values.forEach((k, v) -> {
+                        if (k.isEmpty()) {
+                            bindScalar(head, v);
+                        } else if (container) {
+                            builder.property(head + '.' + k, v);
+                        } else {
+                            unknownKeys.add(head + '.' + k);
+                        }
+                    });
+            }
+        }
+        if (customizers != null) { // last to see the whole configuration
+            bindCustomizers(customizers);
+        }
+
+        unknownKeys.sort(String::compareTo);
+        return unknownKeys;
+    }
+
+    private void bindScalar(final String key, final String value) {
+        final Field field = fields().get(key);
+        if (field == null) {
+            unknownKeys.add(key);
+            return;
+        }
+        final Class<?> type = field.getType();
+        try {
+            if (type == File.class) {
+                builder.setServerXml(value);
+            } else if (type == String.class) {
+                field.set(builder, value);
+            } else if (type == int.class || type == Integer.class) {
+                field.set(builder, Integer.parseInt(value.trim()));
+            } else if (type == long.class || type == Long.class) {
+                field.set(builder, Long.parseLong(value.trim()));
+            } else if (type == double.class || type == Double.class) {
+                field.set(builder, Double.parseDouble(value.trim()));
+            } else {
+                field.set(builder, Boolean.parseBoolean(value.trim()));
+            }
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' for " + key, e);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void bindRealm(final Map<String, String> values) {
+        final String type = values.remove("");
+        if (type == null) {
+            values.keySet().forEach(k -> unknownKeys.add("realm." + k));
+            return;
+        }
+        builder.realm(Realm.class.cast(create(type, values)));
+    }
+
+    private void bindWarmups(final Map<String, String> values) { // warmup.<name>.path/method/body/contentType
+        for (final Map.Entry<String, Map<String, String>> warmup : byName("warmup", values).entrySet()) {
+            final Map<String, String> request = warmup.getValue();
+            if (!request.containsKey("path")) {
+                request.keySet().forEach(k -> unknownKeys.add("warmup." + warmup.getKey() + '.' + k));
+                continue;
+            }
+            builder.warmupRequests().add(Microwave.WarmupRequest.class.cast(create(Microwave.WarmupRequest.class.getName(), request)));
+        }
+    }
+
+    private void bindSecurityConstraints(final Map<String, String> values) {
+        final boolean defaultConstraint = values.remove("") != null; // securityConstraint=true alone is an empty constraint
+        final Map<String, String> unnamed = new HashMap<>();
+        final Map<String, String> named = new HashMap<>();
+        values.forEach((k, v) -> (k.indexOf('.') < 0 ? unnamed : named).put(k, v));
+        if (defaultConstraint || !unnamed.isEmpty()) {
+            builder.securityConstraints().add(Microwave.SecurityConstaintBuilder.class.cast(create(Microwave.SecurityConstaintBuilder.class.getName(), unnamed)));
+        }
+        for (final Map<String, String> constraint : byName("securityConstraint", named).values()) {
+            builder.securityConstraints().add(Microwave.SecurityConstaintBuilder.class.cast(create(Microwave.SecurityConstaintBuilder.class.getName(), constraint)));
+        }
+    }
+
+    private void bindCustomizers(final Map<String, String> values) {
+        final Map<String, Map<String, String>> customizers = new TreeMap<>(NAMES);
+        values.forEach((k, v) -> {
+            final int dot = k.indexOf('.');
+            if (dot < 0) {
+                customizers.computeIfAbsent(k, n -> new HashMap<>()).put("class", v);
+            } else if (dot == 0) {
+                unknownKeys.add("configurationCustomizer." + k);
+            } else {
+                customizers.computeIfAbsent(k.substring(0, dot), n -> new HashMap<>()).put(k.substring(dot + 1), v);
+            }
+        });
+        for (final Map.Entry<String, Map<String, String>> customizer : customizers.entrySet()) {
+            final Map<String, String> properties = customizer.getValue();
+            final String type = properties.remove("class");
+            if (type == null) {
+                properties.keySet().forEach(k -> unknownKeys.add("configurationCustomizer." + customizer.getKey() + '.' + k));
+                continue;
+            }
+            builder.addCustomizer(Microwave.ConfigurationCustomizer.class.cast(create(type, properties)));
+        }
+    }
+
+    // <name>.<property> -> name -> property -> value, sorted by name
+    private Map<String, Map<String, String>> byName(final String prefix, final Map<String, String> values) {
+        final Map<String, Map<String, String>> byName = new TreeMap<>(NAMES);
+        values.forEach((k, v) -> {
+            final int dot = k.indexOf('.');
+            if (dot <= 0 || dot == k.length() - 1) {
+                unknownKeys.add(k.isEmpty() ? prefix : prefix + '.' + k);
+            } else {
+                byName.computeIfAbsent(k.substring(0, dot), n -> new HashMap<>()).put(k.substring(dot + 1), v);
+            }
+        });
+        return byName;
+    }
+
+    private static Object create(final String type, final Map<String, String> properties) {
+        final ObjectRecipe recipe = new ObjectRecipe(type);
+        properties.forEach(recipe::setProperty);
+        return recipe.create();
+    }
+
+    private static boolean isIndex(final String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return !name.isEmpty();
+    }
+
+    private static Map<String, Field> fields() {
+        Map<String, Field> result = fields;
+        if (result == null) {
+            final Collection<Class<?>> scalars = asList(
+                    String.class, File.class, int.class, Integer.class, long.class, Long.class,
+                    boolean.class, Boolean.class, double.class, Double.class);
+            result = new HashMap<>();
+            for (final Field field : Microwave.Builder.class.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || !scalars.contains(field.getType())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                result.put(field.getName(), field);
+            }
+            // historical (short) keys
+            result.put("http", result.get("httpPort"));
+            result.put("https", result.get("httpsPort"));
+            result.put("stop", result.get("stopPort"));
+            fields = result = unmodifiableMap(result);
+        }
+        return result;
+    }
+}
@@ -3,6 +3,7 @@ package org.apache.microwave;
 import lombok.Data;
 import lombok.Getter;
 import lombok.experimental.Accessors;
+import org.apache.catalina.Container;
 import org.apache.catalina.Context;
 import org.apache.catalina.Engine;
 import org.apache.catalina.Globals;
@@ -14,22 +15,41 @@ import org.apache.catalina.Realm;
 import org.apache.catalina.Server;
 import org.apache.catalina.Service;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
 import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardWrapper;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.session.StandardManager;
 import org.apache.catalina.startup.Catalina;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.text.StrLookup;
 import org.apache.commons.lang3.text.StrSubstitutor;
+import org.apache.coyote.AbstractProtocol;
 import org.apache.coyote.http2.Http2Protocol;
 import org.apache.cxf.helpers.FileUtils;
 import org.apache.microwave.cxf.CxfCdiAutoSetup;
+import org.apache.microwave.cxf.InProcessTransportFactory;
+import org.apache.microwave.jfr.MicrowaveEvents;
+import org.apache.microwave.openwebbeans.FootprintTrimmer;
 import org.apache.microwave.openwebbeans.OWBAutoSetup;
+import org.apache.microwave.tomcat.AdaptiveExecutor;
+import org.apache.microwave.tomcat.DrainValve;
+import org.apache.microwave.tomcat.InProcessInvoker;
+import org.apache.microwave.tomcat.InProcessResponse;
+import org.apache.microwave.tomcat.KeystoreWatcher;
+import org.apache.microwave.tomcat.MappedSessionStore;
+import org.apache.microwave.tomcat.MappedWarRoot;
+import org.apache.microwave.tomcat.MicrowaveSessionManager;
 import org.apache.microwave.tomcat.ProvidedLoader;
+import org.apache.microwave.tomcat.RequestEventValve;
+import org.apache.microwave.tomcat.RingBufferAccessLogValve;
+import org.apache.microwave.tomcat.SlowRequestValve;
+import org.apache.microwave.tomcat.UpgradedStreamValve;
+import org.apache.microwave.websocket.WebSocketAutoSetup;
 import org.apache.tomcat.util.descriptor.web.LoginConfig;
 import org.apache.tomcat.util.descriptor.web.SecurityCollection;
 import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
+import org.apache.tomcat.util.net.SSLHostConfig;
 import org.apache.xbean.finder.ResourceFinder;
 import org.apache.xbean.recipe.ObjectRecipe;
 import org.xml.sax.Attributes;
@@ -46,7 +66,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -56,20 +80,54 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
 
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toList;
 
 public class Microwave implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(Microwave.class.getName());
+
     @Getter
     private final Builder configuration;
 
+    private final CompletableFuture<Microwave> readiness = new CompletableFuture<>();
+    private final AtomicBoolean footprintReported = new AtomicBoolean();
+
     private InternalTomcat tomcat;
     private File base;
+    private InProcessInvoker inProcessInvoker;
+    private String inProcessAddress;
+    private Connector httpsConnector;
+    private KeystoreWatcher keystoreWatcher;
+    private DrainValve drainValve;
+    private AdaptiveExecutor adaptiveExecutor;
 
-    // we can undeploy webapps with that later
-    private final Map<String, Context> contexts = new HashMap<>();
+    // with warmup requests or deferred connectors, connectors are only added to the service once contexts are ready
+    private final Collection<Connector> pendingConnectors = new ArrayList<>();
+
+    // current version of each deployed context, see redeploy()
+    private final Map<String, Context> contexts = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
 
     public Microwave(final Builder builder) {
         this.configuration = builder;
@@ -93,26 +151,206 @@ public class Microwave implements AutoCloseable {
         return deployWebapp(context, warOrDir, null);
     }
 
+    // deploys the webapps concurrently then warms up and starts the connectors (see Builder.deferConnectors)
+    public Microwave deployAll(final Map<String, File> webapps) {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(webapps.size(), Runtime.getRuntime().availableProcessors())), r -> {
+            final Thread thread = new Thread(r, "microwave-deployer-" + threadCount.incrementAndGet());
+            thread.setContextClassLoader(loader);
+            return thread;
+        });
+        try {
+            final Collection<Future<?>> deployments = new ArrayList<>(webapps.size());
+            for (final Map.Entry<String, File> webapp : webapps.entrySet()) {
+                deployments.add(executor.submit(() -> deployWebapp(webapp.getKey(), webapp.getValue())));
+            }
+            for (final Future<?> deployment : deployments) {
+                try {
+                    deployment.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } catch (final ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    throw RuntimeException.class.isInstance(cause) ? RuntimeException.class.cast(cause) : new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return warmup();
+    }
+
+    // calls the deployed contexts through the servlet pipeline without any socket
+    public InProcessInvoker inProcess() {
+        return inProcessInvoker;
+    }
+
+    // base address for JAX-RS clients using the in process transport, microwave://microwave-<n> (unique per instance)
+    public String getInProcessAddress() {
+        return inProcessAddress;
+    }
+
+    // null unless adaptiveThreads, its getters are the pool metrics (also the Executor mbean)
+    public AdaptiveExecutor getAdaptiveExecutor() {
+        return adaptiveExecutor;
+    }
+
+    public boolean isReady() {
+        return readiness.isDone() && !readiness.isCompletedExceptionally();
+    }
+
+    // completed when connectors accept requests
+    public CompletionStage<Microwave> whenReady() {
+        return readiness;
+    }
+
     public Microwave deployWebapp(final String context, final File warOrDir, final Consumer<Context> customizer) {
         if (contexts.containsKey(context)) {
             throw new IllegalArgumentException("Already deployed: '" + context + "'");
         }
+        final StandardContext ctx = createContext(context, warOrDir, customizer, "");
+        if (contexts.putIfAbsent(context, ctx) != null) {
+            throw new IllegalArgumentException("Already deployed: '" + context + "'");
+        }
+        tomcat.getHost().addChild(ctx);
+        return this;
+    }
+
+    public Microwave redeployClasspath(final String context) {
+        final File dir = new File(configuration.tempDir, "classpath/fake-" + context.replace("/", ""));
+        FileUtils.mkDir(dir);
+        return redeploy(context, dir, c -> c.setLoader(new ProvidedLoader(Thread.currentThread().getContextClassLoader())));
+    }
+
+    public Microwave redeploy(final String context, final File warOrDir) {
+        return redeploy(context, warOrDir, null);
+    }
+
+    // tomcat parallel deployment: the new version is started next to the current one which keeps serving,
+    // once started the mapper sends the new requests to it (highest version) then the warmup requests of this context
+    // are replayed and the old version is drained and stopped. If the new version fails to start the current one stays.
+    // Not supported with a sessionStore since both versions would share (and corrupt) the same store file.
+    public Microwave redeploy(final String context, final File warOrDir, final Consumer<Context> customizer) {
+        final Context current = contexts.get(context);
+        if (current == null) {
+            throw new IllegalArgumentException("Not deployed: '" + context + "'");
+        }
+        if (configuration.sessionStore != null) {
+            throw new IllegalStateException("Can't redeploy '" + context + "' with a sessionStore, use undeploy() then deployWebapp()");
+        }
+
+        final StandardContext ctx = createContext(context, warOrDir, customizer, String.format("%019d", versions.incrementAndGet()));
+        try {
+            tomcat.getHost().addChild(ctx);
+        } catch (final RuntimeException e) {
+            tomcat.getHost().removeChild(ctx);
+            throw e;
+        }
+        if (!ctx.getState().isAvailable()) {
+            tomcat.getHost().removeChild(ctx);
+            throw new IllegalStateException("Can't start the new version of '" + context + "', keeping the current one");
+        }
+        if (!contexts.replace(context, current, ctx)) {
+            tomcat.getHost().removeChild(ctx);
+            throw new IllegalStateException("'" + context + "' was redeployed or undeployed concurrently");
+        }
+
+        replayWarmupRequests(path -> context.equals(contextOf(path)));
+        drainAndRemove(current);
+        return this;
+    }
+
+    // waits up to undeployTimeout for the requests in progress then stops the context, sessions are not migrated
+    public Microwave undeploy(final String context) {
+        final Context ctx = contexts.remove(context);
+        if (ctx == null) {
+            throw new IllegalArgumentException("Not deployed: '" + context + "'");
+        }
+        drainAndRemove(ctx);
+        return this;
+    }
+
+    // the context is unmapped first so only the requests already in progress are waited for,
+    // new ones go to the new version (redeploy) or get a 404 (undeploy)
+    private void drainAndRemove(final Context ctx) {
+        tomcat.getService().getMapper().removeContextVersion(ctx, tomcat.getHost().getName(), ctx.getPath(), ctx.getWebappVersion());
 
-        final Context ctx = new StandardContext();
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(configuration.undeployTimeout);
+        int inProgress;
+        while ((inProgress = inProgressRequests(ctx)) > 0 && System.nanoTime() < end) {
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (inProgress > 0) {
+            LOGGER.warning("Stopping '" + ctx.getName() + "' with " + inProgress + " requests in progress");
+        }
+        tomcat.getHost().removeChild(ctx);
+    }
+
+    // servlet calls in progress (countAllocated is incremented for each service() call), async requests are not counted
+    private static int inProgressRequests(final Context ctx) {
+        int count = 0;
+        for (final Container child : ctx.findChildren()) {
+            if (StandardWrapper.class.isInstance(child)) {
+                count += StandardWrapper.class.cast(child).getCountAllocated();
+            }
+        }
+        return count;
+    }
+
+    // longest deployed context prefix of the path, like the mapper does
+    private String contextOf(final String path) {
+        String match = null;
+        for (final String context : contexts.keySet()) {
+            if ((context.isEmpty() || path.equals(context) || path.startsWith(context + '/'))
+                    && (match == null || context.length() > match.length())) {
+                match = context;
+            }
+        }
+        return match;
+    }
+
+    private StandardContext createContext(final String context, final File warOrDir, final Consumer<Context> customizer, final String version) {
+        final StandardContext ctx = new StandardContext();
         ctx.setPath(context);
-        ctx.setName(context);
+        ctx.setName(version.isEmpty() ? context : context + "##" + version);
+        ctx.setWebappVersion(version);
         try {
             ctx.setDocBase(warOrDir.getCanonicalPath());
         } catch (final IOException e) {
             ctx.setDocBase(warOrDir.getAbsolutePath());
         }
         ctx.addLifecycleListener(new Tomcat.FixContextListener());
+        if (configuration.mappedWars && warOrDir.isFile() && ctx.getDocBase().endsWith(".war")) { // nested jars are indexed in parallel
+            ctx.setResources(new MappedWarRoot(ctx, configuration.mappedWarCacheSize, configuration.mappedWarCacheEntrySize, ForkJoinPool.commonPool()));
+        }
+        if (configuration.minimalFootprint) { // no JNDI context, jsp and default servlets are never added
+            ctx.setUseNaming(false);
+        }
+        if (configuration.statelessSessions || configuration.maxSessions > 0 || configuration.sessionStore != null) {
+            final MicrowaveSessionManager manager = new MicrowaveSessionManager();
+            manager.setMaxSessions(configuration.maxSessions);
+            manager.setStateless(configuration.statelessSessions);
+            if (configuration.sessionStore != null && !configuration.statelessSessions) {
+                manager.setStore(new MappedSessionStore(new File(configuration.sessionStore, (context.replace("/", "").isEmpty() ? "ROOT" : context.replace('/', '_')) + ".sessions")));
+            }
+            ctx.setManager(manager);
+        }
+        final AtomicReference<MicrowaveEvents.Span> deployment = new AtomicReference<>();
         ctx.addLifecycleListener(event -> {
             switch (event.getType()) {
                 case Lifecycle.AFTER_START_EVENT:
-                    ctx.getResources().setCachingAllowed(configuration.webResourceCached);
+                    ctx.getResources().setCachingAllowed(configuration.webResourceCached && !configuration.minimalFootprint);
+                    ofNullable(deployment.getAndSet(null)).ifPresent(MicrowaveEvents.Span::close);
                     break;
                 case Lifecycle.BEFORE_START_EVENT:
+                    deployment.set(MicrowaveEvents.deployment(context));
                     if (configuration.loginConfig() != null) {
                         ctx.setLoginConfig(configuration.loginConfig().build());
                     }
@@ -130,24 +368,94 @@ public class Microwave implements AutoCloseable {
 
         ctx.addServletContainerInitializer((c, ctx1) -> {
             ctx.getServletContext().setAttribute("microwave.configuration", configuration);
+            ctx.getServletContext().setAttribute(InProcessInvoker.class.getName(), inProcessInvoker);
             try {
                 new OWBAutoSetup().onStartup(c, ctx1);
                 new CxfCdiAutoSetup().onStartup(c, ctx1);
+                new WebSocketAutoSetup().onStartup(c, ctx1);
+                if (configuration.minimalFootprint) {
+                    FootprintTrimmer.register(ctx1);
+                }
             } finally {
                 ctx.getServletContext().removeAttribute("microwave.configuration");
+                ctx.getServletContext().removeAttribute(InProcessInvoker.class.getName());
             }
         }, emptySet());
 
         ofNullable(customizer).ifPresent(c -> c.accept(ctx));
-
-        tomcat.getHost().addChild(ctx);
-        contexts.put(context, ctx);
-        return this;
+        return ctx;
     }
 
     public Microwave bake() {
         start();
-        return deployClasspath();
+        deployClasspath();
+        return warmup();
+    }
+
+    // runs the warmup requests in process then starts the connectors,
+    // needed after start() when warmup requests are set or connectors are deferred.
+    // The footprint is reported once the deployments are there, even if start() already completed the readiness.
+    public Microwave warmup() {
+        final boolean ready = isReady();
+        if (!ready) {
+            replayWarmupRequests(path -> true);
+            for (final Connector connector : pendingConnectors) {
+                tomcat.getService().addConnector(connector); // starts it
+            }
+            pendingConnectors.clear();
+        }
+        if ((configuration.minimalFootprint || configuration.heapBudget > 0) && footprintReported.compareAndSet(false, true)) {
+            final FootprintReport report = footprint();
+            if (configuration.heapBudget > 0 && report.getUsedHeap() > configuration.heapBudget * 1024 * 1024) {
+                LOGGER.warning("Footprint over the heap budget of " + configuration.heapBudget + "MB: " + report);
+            } else {
+                LOGGER.info("Footprint: " + report);
+            }
+        }
+        if (!ready) {
+            LOGGER.info("Microwave ready");
+            readiness.complete(this);
+        }
+        return this;
+    }
+
+    private void replayWarmupRequests(final Predicate<String> paths) {
+        final Collection<WarmupRequest> requests = configuration.warmupRequests.stream()
+                .filter(r -> paths.test(r.path))
+                .collect(toList());
+        if (requests.isEmpty()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < configuration.warmupIterations; i++) {
+            for (final WarmupRequest request : requests) {
+                final InProcessResponse response;
+                try {
+                    response = inProcessInvoker.invoke(request.method, request.path,
+                            request.contentType == null ? emptyMap() : singletonMap("Content-Type", singletonList(request.contentType)),
+                            request.body == null ? null : request.body.getBytes(StandardCharsets.UTF_8));
+                } catch (final UnsupportedOperationException e) { // async endpoint
+                    if (i == 0) {
+                        LOGGER.warning("Warmup request " + request.method + " " + request.path + " skipped: " + e.getMessage());
+                    }
+                    continue;
+                }
+                if (i == 0 && response.getStatus() >= 400) {
+                    LOGGER.warning("Warmup request " + request.method + " " + request.path + " returned HTTP " + response.getStatus());
+                }
+            }
+        }
+        LOGGER.info("Warmup done in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms ("
+                + configuration.warmupIterations * requests.size() + " requests)");
+    }
+
+    // triggers a GC to measure the resident heap so don't call it on a hot path
+    public FootprintReport footprint() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        return new FootprintReport(
+                memory.getHeapMemoryUsage().getUsed(), memory.getHeapMemoryUsage().getCommitted(), memory.getNonHeapMemoryUsage().getUsed(),
+                ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(), ManagementFactory.getThreadMXBean().getThreadCount());
     }
 
     public Microwave start() {
@@ -251,47 +559,62 @@ public class Microwave implements AutoCloseable {
             tomcat.getEngine().setRealm(configuration.realm);
         }
 
+        if (configuration.shutdownTimeout > 0) {
+            drainValve = new DrainValve();
+            tomcat.getHost().getPipeline().addValve(drainValve);
+        }
+        if (configuration.jfrEvents && MicrowaveEvents.isAvailable()) {
+            tomcat.getHost().getPipeline().addValve(new RequestEventValve());
+        }
+        if (configuration.accessLog) {
+            tomcat.getHost().getPipeline().addValve(createAccessLog(new File(configuration.logDir)));
+        }
+        if (configuration.slowRequestThreshold >= 0) {
+            tomcat.getHost().getPipeline().addValve(createSlowRequestValve(new File(configuration.logDir)));
+        }
+        if (configuration.http2) {
+            tomcat.getHost().getPipeline().addValve(new UpgradedStreamValve());
+        }
+
+        if (configuration.adaptiveThreads) { // before the connectors, createConnector() plugs it
+            adaptiveExecutor = createAdaptiveExecutor();
+            tomcat.getService().addExecutor(adaptiveExecutor);
+        }
+
+        if (configuration.ssl && configuration.http2) {
+            // tomcat JSSE support has no ALPN so rely on tomcat-native (OpenSSL) for h2 over TLS,
+            // registered before the connectors are created since they select their implementation with it
+            tomcat.getServer().addLifecycleListener(new AprLifecycleListener());
+        }
+
         if (tomcat.getRawConnector() == null && !configuration.skipHttp) {
             final Connector connector = createConnector();
             connector.setPort(configuration.httpPort);
             if (connector.getAttribute("connectionTimeout") == null) {
                 connector.setAttribute("connectionTimeout", "3000");
             }
-            if (configuration.http2) { // would likely need SSLHostConfig programmatically
-                connector.addUpgradeProtocol(new Http2Protocol());
+            if (configuration.http2) { // h2c, upgrade from HTTP/1.1
+                connector.addUpgradeProtocol(createHttp2Protocol());
             }
 
-            tomcat.getService().addConnector(connector);
+            addConnector(connector);
             tomcat.setConnector(connector);
         }
 
         // create https connector
         if (configuration.ssl) {
-            final Connector httpsConnector = createConnector();
+            httpsConnector = createConnector();
             httpsConnector.setPort(configuration.httpsPort);
             httpsConnector.setSecure(true);
+            httpsConnector.setScheme("https");
             httpsConnector.setProperty("SSLEnabled", "true");
-            httpsConnector.setProperty("sslProtocol", configuration.sslProtocol);
+            httpsConnector.addSslHostConfig(createSslHostConfig());
 
-            if (configuration.keystoreFile != null) {
-                httpsConnector.setAttribute("", configuration.keystoreFile);
-            }
-            if (configuration.keystorePass != null) {
-                httpsConnector.setAttribute("keystorePass", configuration.keystorePass);
-            }
-            httpsConnector.setAttribute("keystoreType", configuration.keystoreType);
-            if (configuration.clientAuth != null) {
-                httpsConnector.setAttribute("clientAuth", configuration.clientAuth);
-            }
-            if (configuration.keyAlias != null) {
-                httpsConnector.setAttribute("keyAlias", configuration.keyAlias);
+            if (configuration.http2) { // h2 is negotiated with ALPN
+                httpsConnector.addUpgradeProtocol(createHttp2Protocol());
             }
 
-            if (configuration.http2) { // would likely need SSLHostConfig programmatically
-                httpsConnector.addUpgradeProtocol(new Http2Protocol());
-            }
-
-            tomcat.getService().addConnector(httpsConnector);
+            addConnector(httpsConnector);
 
             if (configuration.skipHttp) {
                 tomcat.setConnector(httpsConnector);
@@ -299,7 +622,7 @@ public class Microwave implements AutoCloseable {
         }
 
         for (final Connector c : configuration.connectors) {
-            tomcat.getService().addConnector(c);
+            addConnector(c);
         }
         if (!configuration.skipHttp && !configuration.ssl && !configuration.connectors.isEmpty()) {
             tomcat.setConnector(configuration.connectors.iterator().next());
@@ -326,14 +649,101 @@ public class Microwave implements AutoCloseable {
         } catch (final LifecycleException e) {
             throw new IllegalStateException(e);
         }
+        if (httpsConnector != null && configuration.keystoreFile != null && configuration.keystoreWatchInterval > 0) {
+            keystoreWatcher = new KeystoreWatcher(httpsConnector, new File(configuration.keystoreFile), this::createSslHostConfig, configuration.keystoreWatchInterval);
+        }
+        if (configuration.ssl && configuration.http2 && !AprLifecycleListener.isAprAvailable()) {
+            LOGGER.warning("tomcat-native not available, no ALPN so TLS clients will use HTTP/1.1 (h2c is still available)");
+        }
+        inProcessInvoker = new InProcessInvoker(tomcat.getService(), configuration.host, configuration.httpPort);
+        inProcessAddress = InProcessTransportFactory.register(inProcessInvoker);
+        if (pendingConnectors.isEmpty()) {
+            readiness.complete(this);
+        }
+        return this;
+    }
+
+    // stops accepting connections (the OS still queues them up to the accept count), in progress requests go on
+    public Microwave pause() {
+        for (final Connector connector : tomcat.getService().findConnectors()) {
+            try (final MicrowaveEvents.Span ignored = MicrowaveEvents.connector("pause", connector.getScheme(), connector.getPort())) {
+                connector.pause();
+            }
+        }
+        return this;
+    }
+
+    public Microwave resume() {
+        for (final Connector connector : tomcat.getService().findConnectors()) {
+            try (final MicrowaveEvents.Span ignored = MicrowaveEvents.connector("resume", connector.getScheme(), connector.getPort())) {
+                connector.resume();
+            }
+        }
         return this;
     }
 
+    // stops accepting connections, answers the requests of established connections with Connection: close
+    // and waits for the requests in progress (async ones included, not websockets) up to timeout ms, then close() is expected.
+    // Requires shutdownTimeout > 0 which installs the request tracking.
+    public DrainReport drain(final long timeout) {
+        if (drainValve == null) {
+            throw new IllegalStateException("Draining requires shutdownTimeout > 0");
+        }
+        final long start = System.nanoTime();
+        final long completed = drainValve.getCompleted();
+        drainValve.startDraining();
+        for (final Connector connector : tomcat.getService().findConnectors()) {
+            try (final MicrowaveEvents.Span ignored = MicrowaveEvents.connector("drain", connector.getScheme(), connector.getPort())) {
+                stopAccepting(connector);
+            }
+        }
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (drainValve.getActive() > 0 && System.nanoTime() < end) {
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        final DrainReport report = new DrainReport(drainValve.getCompleted() - completed, drainValve.getActive(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (report.getAborted() > 0) {
+            LOGGER.warning("Drain timed out: " + report);
+        } else {
+            LOGGER.info("Drained: " + report);
+        }
+        return report;
+    }
+
+    // connector.pause() would close the keep-alive connections without answering their next request (reset on client side),
+    // a connection limit of 0 blocks the acceptor instead and a dummy connection releases it if it is waiting in accept()
+    private static void stopAccepting(final Connector connector) {
+        connector.setProperty("maxConnections", "0");
+        final Object address = connector.getAttribute("address");
+        final String host = address == null ? "localhost" : (InetAddress.class.isInstance(address) ? InetAddress.class.cast(address).getHostAddress() : address.toString());
+        try (final Socket ignored = new Socket(host, connector.getLocalPort())) {
+            // no-op
+        } catch (final IOException e) {
+            // acceptor already blocked
+        }
+    }
+
     @Override
     public void close() {
         if (tomcat == null) {
             return;
         }
+        readiness.completeExceptionally(new IllegalStateException("Microwave closed"));
+        if (drainValve != null && !drainValve.isDraining()) {
+            drain(configuration.shutdownTimeout);
+        }
+        if (inProcessAddress != null) {
+            InProcessTransportFactory.unregister(inProcessAddress, inProcessInvoker);
+        }
+        if (keystoreWatcher != null) {
+            keystoreWatcher.close();
+        }
         try {
             tomcat.stop();
             tomcat.destroy();
@@ -368,9 +778,122 @@ public class Microwave implements AutoCloseable {
         } else {
             connector = new Connector();
         }
+        if (configuration.minimalFootprint) { // threads and processors are created on demand
+            setDefaultAttribute(connector, "minSpareThreads", "1");
+            setDefaultAttribute(connector, "processorCache", "16");
+        }
+        if (adaptiveExecutor != null && AbstractProtocol.class.isInstance(connector.getProtocolHandler())) {
+            AbstractProtocol.class.cast(connector.getProtocolHandler()).setExecutor(adaptiveExecutor);
+        }
         return connector;
     }
 
+    private void setDefaultAttribute(final Connector connector, final String name, final String value) {
+        if (configuration.properties == null || configuration.properties.getProperty("connector.attributes." + name) == null) {
+            connector.setAttribute(name, value);
+        }
+    }
+
+    private void addConnector(final Connector connector) {
+        if (!configuration.deferConnectors && configuration.warmupRequests.isEmpty()) {
+            tomcat.getService().addConnector(connector);
+        } else {
+            pendingConnectors.add(connector);
+        }
+    }
+
+    protected Http2Protocol createHttp2Protocol() {
+        final ObjectRecipe recipe = new ObjectRecipe(Http2Protocol.class);
+        if (configuration.http2MaxConcurrentStreams > 0) {
+            recipe.setProperty("maxConcurrentStreams", configuration.http2MaxConcurrentStreams);
+        }
+        if (configuration.http2MaxConcurrentStreamExecution > 0) {
+            recipe.setProperty("maxConcurrentStreamExecution", configuration.http2MaxConcurrentStreamExecution);
+        }
+        if (configuration.http2InitialWindowSize > 0) {
+            recipe.setProperty("initialWindowSize", configuration.http2InitialWindowSize);
+        }
+        final Properties properties = configuration.properties;
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith("http2.")) {
+                recipe.setProperty(key.substring("http2.".length()), properties.getProperty(key));
+            }
+        }
+        return Http2Protocol.class.cast(recipe.create());
+    }
+
+    protected SSLHostConfig createSslHostConfig() {
+        final ObjectRecipe recipe = new ObjectRecipe(SSLHostConfig.class);
+        if (configuration.keystoreFile != null) {
+            recipe.setProperty("certificateKeystoreFile", configuration.keystoreFile);
+        }
+        if (configuration.keystorePass != null) {
+            recipe.setProperty("certificateKeystorePassword", configuration.keystorePass);
+        }
+        recipe.setProperty("certificateKeystoreType", configuration.keystoreType);
+        if (configuration.keyAlias != null) {
+            recipe.setProperty("certificateKeyAlias", configuration.keyAlias);
+        }
+        if (configuration.clientAuth != null) {
+            recipe.setProperty("certificateVerification", configuration.clientAuth);
+        }
+        if (configuration.sslProtocol != null) {
+            recipe.setProperty("sslProtocol", configuration.sslProtocol);
+        }
+        if (configuration.sslSessionCacheSize >= 0) { // 0 = unlimited
+            recipe.setProperty("sessionCacheSize", configuration.sslSessionCacheSize);
+        }
+        if (configuration.sslSessionTimeout >= 0) { // seconds, 0 = unlimited
+            recipe.setProperty("sessionTimeout", configuration.sslSessionTimeout);
+        }
+        if (!configuration.sslSessionTickets) { // OpenSSL only, JSSE uses -Djdk.tls.server.enableSessionTicketExtension
+            recipe.setProperty("disableSessionTickets", true);
+        }
+        final Properties properties = configuration.properties;
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith("sslHostConfig.")) {
+                recipe.setProperty(key.substring("sslHostConfig.".length()), properties.getProperty(key));
+            }
+        }
+        return SSLHostConfig.class.cast(recipe.create());
+    }
+
+    protected RingBufferAccessLogValve createAccessLog(final File logs) {
+        final ObjectRecipe recipe = new ObjectRecipe(RingBufferAccessLogValve.class);
+        recipe.setProperty("directory", logs);
+        final Properties properties = configuration.properties;
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith("accessLog.")) {
+                recipe.setProperty(key.substring("accessLog.".length()), properties.getProperty(key));
+            }
+        }
+        return RingBufferAccessLogValve.class.cast(recipe.create());
+    }
+
+    protected AdaptiveExecutor createAdaptiveExecutor() {
+        final ObjectRecipe recipe = new ObjectRecipe(AdaptiveExecutor.class);
+        final Properties properties = configuration.properties;
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith("adaptiveExecutor.")) {
+                recipe.setProperty(key.substring("adaptiveExecutor.".length()), properties.getProperty(key));
+            }
+        }
+        return AdaptiveExecutor.class.cast(recipe.create());
+    }
+
+    protected SlowRequestValve createSlowRequestValve(final File logs) {
+        final ObjectRecipe recipe = new ObjectRecipe(SlowRequestValve.class);
+        recipe.setProperty("directory", logs);
+        recipe.setProperty("threshold", configuration.slowRequestThreshold);
+        final Properties properties = configuration.properties;
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith("slowRequest.")) {
+                recipe.setProperty(key.substring("slowRequest.".length()), properties.getProperty(key));
+            }
+        }
+        return SlowRequestValve.class.cast(recipe.create());
+    }
+
     private static Server createServer(final String serverXml) {
         final Catalina catalina = new Catalina() {
             // skip few init we don't need *here*
@@ -480,6 +1003,10 @@ public class Microwave implements AutoCloseable {
         private String clientAuth;
         private String keyAlias;
         private String sslProtocol;
+        private int sslSessionCacheSize = -1;
+        private int sslSessionTimeout = -1;
+        private boolean sslSessionTickets = true;
+        private long keystoreWatchInterval = -1; // ms, opt-in: <= 0 disables the keystore reloading
         private String webXml;
         private LoginConfigBuilder loginConfig;
         private Collection<SecurityConstaintBuilder> securityConstraints = new LinkedList<>();
@@ -487,13 +1014,44 @@ public class Microwave implements AutoCloseable {
         private Map<String, String> users;
         private Map<String, String> roles;
         private boolean http2;
+        private long http2MaxConcurrentStreams = -1;
+        private int http2MaxConcurrentStreamExecution = -1;
+        private int http2InitialWindowSize = -1;
         private final Collection<Connector> connectors = new ArrayList<>();
         private String tempDir = new File(System.getProperty("java.io.tmpdir"), "microwave_" + System.nanoTime()).getAbsolutePath();
         private boolean webResourceCached = true;
+        private boolean mappedWars; // .war files served in place from a mapped index (MappedWarRoot) instead of tomcat war resources
+        private long mappedWarCacheSize = 32 * 1024 * 1024; // bytes of hot inflated entries kept per archive
+        private int mappedWarCacheEntrySize = 512 * 1024; // bigger entries are streamed, never cached
         private String conf;
         private boolean deleteBaseOnStartup = true;
         private String jaxrsMapping = "/*";
+        private String batchMapping; // null = no batch endpoint
+        private int batchThreads = Runtime.getRuntime().availableProcessors();
+        private int batchMaxRequests = 50;
+        private long batchTimeout = 30000; // ms a batch waits for its sub-requests, the ones still running get a 504
+        private boolean cbor; // application/cbor provider next to the JSON ones, opt-in
         private boolean cdiConversation;
+        private int asyncEventThreads = 2; // workers delivering @Async observers, <= 0 (or minimalFootprint) delivers them synchronously
+        private int asyncEventQueueSize = 4096; // pending deliveries before the firing thread runs them itself
+        private int asyncEventBatchSize = 64; // deliveries a worker takes from the queue at once
+        private boolean websocket; // websocket container + CDI @ServerEndpoint deployment, opt-in since it is installed per context
+        private int maxSessions = -1;
+        private boolean statelessSessions;
+        private String sessionStore;
+        private boolean accessLog;
+        private String logDir = "logs"; // access log and slow request reports, outside of the base which close() deletes
+        private long slowRequestThreshold = -1; // ms, < 0 = no slow request sampling
+        private long shutdownTimeout = -1; // ms to drain the requests in progress on close(), <= 0 stops right away
+        private long undeployTimeout = 30000; // ms to wait for in progress requests when undeploying/redeploying
+        private boolean jfrEvents; // request events, opt-in and only when the JVM supports JFR
+        private boolean adaptiveThreads; // connector threads sized by AdaptiveExecutor (adaptiveExecutor.* properties) instead of maxThreads
+        private final Collection<WarmupRequest> warmupRequests = new ArrayList<>();
+        private int warmupIterations = 100;
+        private boolean deferConnectors;
+        private boolean lazyInit;
+        private boolean minimalFootprint;
+        private long heapBudget = -1; // MB, checked by warmup()
 
         public Builder() { // load defaults
             loadFrom("microwave.properties");
@@ -565,166 +1123,60 @@ public class Microwave implements AutoCloseable {
             return this;
         }
 
+        public Builder warmup(final String method, final String path, final String body) {
+            final WarmupRequest request = new WarmupRequest();
+            request.setMethod(method);
+            request.setPath(path);
+            request.setBody(body);
+            warmupRequests.add(request);
+            return this;
+        }
+
         public void addCustomizer(final ConfigurationCustomizer configurationCustomizer) {
             configurationCustomizer.customize(this);
         }
 
+        // see ConfigurationBinder for the supported keys, unknown ones are only logged to let newer configurations run
         public void loadFromProperties(final Properties config) {
-            // filtering properties with system properties or themself
-            final StrSubstitutor strSubstitutor = new StrSubstitutor(new StrLookup<String>() {
-                @Override
-                public String lookup(final String key) {
-                    final String property = System.getProperty(key);
-                    return property == null ? config.getProperty(key) : null;
-                }
-            });
-            for (final String key : config.stringPropertyNames()) {
-                final String val = config.getProperty(key);
-                if (val == null || val.trim().isEmpty()) {
-                    continue;
-                }
-                final String newVal = strSubstitutor.replace(config.getProperty(key));
-                if (!val.equals(newVal)) {
-                    config.setProperty(key, newVal);
-                }
+            final Collection<String> unknownKeys = new ConfigurationBinder(this).bind(config);
+            if (!unknownKeys.isEmpty()) {
+                LOGGER.warning("Ignored unknown configuration keys: " + unknownKeys);
             }
+        }
+    }
 
+    @Data
+    public static class WarmupRequest {
+        private String method = "GET";
+        private String path;
+        private String body;
+        private String contentType;
+    }
 
-            final String http = config.getProperty("http");
-            if (http != null) {
-                httpPort = Integer.parseInt(http);
-            }
-            final String https = config.getProperty("https");
-            if (https != null) {
-                httpsPort = Integer.parseInt(https);
-            }
-            final String stop = config.getProperty("stop");
-            if (stop != null) {
-                stopPort = Integer.parseInt(stop);
-            }
-            final String host = config.getProperty("host");
-            if (host != null) {
-                this.host = host;
-            }
-            final String dir = config.getProperty("dir");
-            if (dir != null) {
-                this.dir = dir;
-            }
-            final String serverXml = config.getProperty("serverXml");
-            if (serverXml != null) {
-                setServerXml(serverXml);
-            }
-            final String keepServerXmlAsThis = config.getProperty("keepServerXmlAsThis");
-            if (keepServerXmlAsThis != null) {
-                this.keepServerXmlAsThis = Boolean.parseBoolean(keepServerXmlAsThis);
-            }
-            final String quickSession = config.getProperty("quickSession");
-            if (quickSession != null) {
-                this.quickSession = Boolean.parseBoolean(quickSession);
-            }
-            final String skipHttp = config.getProperty("skipHttp");
-            if (skipHttp != null) {
-                this.skipHttp = Boolean.parseBoolean(skipHttp);
-            }
-            final String ssl = config.getProperty("ssl");
-            if (ssl != null) {
-                this.ssl = Boolean.parseBoolean(ssl);
-            }
-            final String http2 = config.getProperty("http2");
-            if (http2 != null) {
-                this.http2 = Boolean.parseBoolean(http2);
-            }
-            final String deleteBaseOnStartup = config.getProperty("deleteBaseOnStartup");
-            if (deleteBaseOnStartup != null) {
-                this.deleteBaseOnStartup = Boolean.parseBoolean(deleteBaseOnStartup);
-            }
-            final String webResourceCached = config.getProperty("webResourceCached");
-            if (webResourceCached != null) {
-                this.webResourceCached = Boolean.parseBoolean(webResourceCached);
-            }
-            final String keystoreFile = config.getProperty("keystoreFile");
-            if (keystoreFile != null) {
-                this.keystoreFile = keystoreFile;
-            }
-            final String keystorePass = config.getProperty("keystorePass");
-            if (keystorePass != null) {
-                this.keystorePass = keystorePass;
-            }
-            final String keystoreType = config.getProperty("keystoreType");
-            if (keystoreType != null) {
-                this.keystoreType = keystoreType;
-            }
-            final String clientAuth = config.getProperty("clientAuth");
-            if (clientAuth != null) {
-                this.clientAuth = clientAuth;
-            }
-            final String keyAlias = config.getProperty("keyAlias");
-            if (keyAlias != null) {
-                this.keyAlias = keyAlias;
-            }
-            final String sslProtocol = config.getProperty("sslProtocol");
-            if (sslProtocol != null) {
-                this.sslProtocol = sslProtocol;
-            }
-            final String webXml = config.getProperty("webXml");
-            if (webXml != null) {
-                this.webXml = webXml;
-            }
-            final String tempDir = config.getProperty("tempDir");
-            if (tempDir != null) {
-                this.tempDir = tempDir;
-            }
-            final String conf = config.getProperty("conf");
-            if (conf != null) {
-                this.conf = conf;
-            }
-            for (final String prop : config.stringPropertyNames()) {
-                if (prop.startsWith("properties.")) {
-                    property(prop.substring("properties.".length()), config.getProperty(prop));
-                } else if (prop.startsWith("users.")) {
-                    user(prop.substring("users.".length()), config.getProperty(prop));
-                } else if (prop.startsWith("roles.")) {
-                    role(prop.substring("roles.".length()), config.getProperty(prop));
-                } else if (prop.startsWith("connector.")) { // created in container
-                    property(prop, config.getProperty(prop));
-                } else if (prop.equals("realm")) {
-                    final ObjectRecipe recipe = new ObjectRecipe(config.getProperty(prop));
-                    for (final String realmConfig : config.stringPropertyNames()) {
-                        if (realmConfig.startsWith("realm.")) {
-                            recipe.setProperty(realmConfig.substring("realm.".length()), config.getProperty(realmConfig));
-                        }
-                    }
-                    this.realm = Realm.class.cast(recipe.create());
-                } else if (prop.equals("login")) {
-                    final ObjectRecipe recipe = new ObjectRecipe(LoginConfigBuilder.class.getName());
-                    for (final String nestedConfig : config.stringPropertyNames()) {
-                        if (nestedConfig.startsWith("login.")) {
-                            recipe.setProperty(nestedConfig.substring("login.".length()), config.getProperty(nestedConfig));
-                        }
-                    }
-                    loginConfig = LoginConfigBuilder.class.cast(recipe.create());
-                } else if (prop.equals("securityConstraint")) {
-                    final ObjectRecipe recipe = new ObjectRecipe(SecurityConstaintBuilder.class.getName());
-                    for (final String nestedConfig : config.stringPropertyNames()) {
-                        if (nestedConfig.startsWith("securityConstraint.")) {
-                            recipe.setProperty(nestedConfig.substring("securityConstraint.".length()), config.getProperty(nestedConfig));
-                        }
-                    }
-                    securityConstraints.add(SecurityConstaintBuilder.class.cast(recipe.create()));
-                } else if (prop.equals("configurationCustomizer.")) {
-                    final String next = prop.substring("configurationCustomizer.".length());
-                    if (next.contains(".")) {
-                        continue;
-                    }
-                    final ObjectRecipe recipe = new ObjectRecipe(properties.getProperty(prop + ".class"));
-                    for (final String nestedConfig : config.stringPropertyNames()) {
-                        if (nestedConfig.startsWith(prop) && !prop.endsWith(".class")) {
-                            recipe.setProperty(nestedConfig.substring(prop.length() + 1 /*dot*/), config.getProperty(nestedConfig));
-                        }
-                    }
-                    addCustomizer(ConfigurationCustomizer.class.cast(recipe.create()));
-                }
-            }
+    @Data
+    public static class FootprintReport {
+        private final long usedHeap;
+        private final long committedHeap;
+        private final long usedNonHeap;
+        private final int loadedClasses;
+        private final int threads;
+
+        @Override
+        public String toString() {
+            return "heap=" + (usedHeap >> 20) + "MB (committed=" + (committedHeap >> 20) + "MB), non heap=" + (usedNonHeap >> 20) + "MB"
+                    + ", classes=" + loadedClasses + ", threads=" + threads;
+        }
+    }
+
+    @Data
+    public static class DrainReport {
+        private final long drained; // requests completed while draining
+        private final int aborted; // requests still in progress at the timeout, cut by the shutdown
+        private final long duration;
+
+        @Override
+        public String toString() {
+            return "drained=" + drained + ", aborted=" + aborted + ", duration=" + duration + "ms";
         }
     }
 
@@ -0,0 +1,56 @@
+package org.apache.microwave.cbor;
+
+import javax.json.Json;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import static java.util.Collections.emptyMap;
+
+// CBOR is binary so only the stream flavors are supported, charsets are ignored
+public class CborFactory implements JsonReaderFactory, JsonGeneratorFactory {
+    private final JsonBuilderFactory builders = Json.createBuilderFactory(emptyMap());
+
+    @Override
+    public JsonReader createReader(final InputStream in) {
+        return new CborReader(in, builders);
+    }
+
+    @Override
+    public JsonReader createReader(final InputStream in, final Charset charset) {
+        return createReader(in);
+    }
+
+    @Override
+    public JsonReader createReader(final Reader reader) {
+        throw new UnsupportedOperationException("CBOR is a binary format, use an InputStream");
+    }
+
+    @Override
+    public JsonGenerator createGenerator(final OutputStream out) {
+        return new CborGenerator(out);
+    }
+
+    @Override
+    public JsonGenerator createGenerator(final OutputStream out, final Charset charset) {
+        return createGenerator(out);
+    }
+
+    @Override
+    public JsonGenerator createGenerator(final Writer writer) {
+        throw new UnsupportedOperationException("CBOR is a binary format, use an OutputStream");
+    }
+
+    @Override
+    public Map<String, ?> getConfigInUse() {
+        return emptyMap();
+    }
+}
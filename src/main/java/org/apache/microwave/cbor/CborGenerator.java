@@ -0,0 +1,352 @@
+package org.apache.microwave.cbor;
+
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// RFC 7049 encoder behind the JSON-P generator API so the johnzon mapper can write CBOR:
+// objects/arrays use indefinite lengths (no need to know the size upfront), integers use the shortest encoding,
+// doubles are written as floats when it is lossless and big numbers use the bignum (2/3) and decimal fraction (4) tags.
+public class CborGenerator implements JsonGenerator {
+    static final int UNSIGNED = 0;
+    static final int NEGATIVE = 1;
+    static final int BYTES = 2;
+    static final int TEXT = 3;
+    static final int ARRAY = 4;
+    static final int MAP = 5;
+    static final int TAG = 6;
+    static final int SIMPLE = 7;
+
+    static final int TAG_POSITIVE_BIGNUM = 2;
+    static final int TAG_NEGATIVE_BIGNUM = 3;
+    static final int TAG_DECIMAL_FRACTION = 4;
+
+    static final int FALSE = 0xF4;
+    static final int TRUE = 0xF5;
+    static final int NULL = 0xF6;
+    static final int UNDEFINED = 0xF7;
+    static final int HALF = 0xF9;
+    static final int FLOAT = 0xFA;
+    static final int DOUBLE = 0xFB;
+    static final int BREAK = 0xFF;
+    static final int INDEFINITE = 31;
+
+    private static final BigInteger MAX_UNSIGNED = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int depth;
+
+    public CborGenerator(final OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public JsonGenerator writeStartObject() {
+        writeByte(MAP << 5 | INDEFINITE);
+        depth++;
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartObject(final String name) {
+        key(name);
+        return writeStartObject();
+    }
+
+    @Override
+    public JsonGenerator writeStartArray() {
+        writeByte(ARRAY << 5 | INDEFINITE);
+        depth++;
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartArray(final String name) {
+        key(name);
+        return writeStartArray();
+    }
+
+    @Override
+    public JsonGenerator writeEnd() {
+        if (depth == 0) {
+            throw new JsonGenerationException("No object or array to end");
+        }
+        writeByte(BREAK);
+        depth--;
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final JsonValue value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final String value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final BigInteger value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final BigDecimal value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final int value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final long value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final double value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator write(final String name, final boolean value) {
+        key(name);
+        return write(value);
+    }
+
+    @Override
+    public JsonGenerator writeNull(final String name) {
+        key(name);
+        return writeNull();
+    }
+
+    @Override
+    public JsonGenerator write(final JsonValue value) {
+        switch (value.getValueType()) {
+            case OBJECT:
+                writeStartObject();
+                for (final Map.Entry<String, JsonValue> entry : JsonObject.class.cast(value).entrySet()) {
+                    write(entry.getKey(), entry.getValue());
+                }
+                return writeEnd();
+            case ARRAY:
+                writeStartArray();
+                for (final JsonValue item : JsonArray.class.cast(value)) {
+                    write(item);
+                }
+                return writeEnd();
+            case STRING:
+                return write(JsonString.class.cast(value).getString());
+            case NUMBER:
+                final JsonNumber number = JsonNumber.class.cast(value);
+                return number.isIntegral() ? write(number.bigIntegerValue()) : write(number.bigDecimalValue());
+            case TRUE:
+                return write(true);
+            case FALSE:
+                return write(false);
+            default:
+                return writeNull();
+        }
+    }
+
+    @Override
+    public JsonGenerator write(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        head(TEXT, bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(final BigDecimal value) {
+        final BigDecimal normalized = value.stripTrailingZeros();
+        if (normalized.scale() <= 0 && normalized.precision() - normalized.scale() <= 18) { // integral, fits in a long
+            return write(normalized.longValueExact());
+        }
+        final double asDouble = normalized.doubleValue();
+        if (!Double.isInfinite(asDouble) && new BigDecimal(asDouble).compareTo(normalized) == 0) {
+            return write(asDouble);
+        }
+        head(TAG, TAG_DECIMAL_FRACTION); // [exponent, mantissa]
+        head(ARRAY, 2);
+        write(-(long) normalized.scale());
+        return write(normalized.unscaledValue());
+    }
+
+    @Override
+    public JsonGenerator write(final BigInteger value) {
+        if (value.bitLength() < 64) {
+            return write(value.longValue());
+        }
+        if (value.signum() >= 0 && value.compareTo(MAX_UNSIGNED) <= 0) {
+            writeByte(UNSIGNED << 5 | 27);
+            writeLong(value.longValue());
+            return this;
+        }
+        final BigInteger magnitude = value.signum() >= 0 ? value : value.negate().subtract(BigInteger.ONE);
+        head(TAG, value.signum() >= 0 ? TAG_POSITIVE_BIGNUM : TAG_NEGATIVE_BIGNUM);
+        final byte[] bytes = magnitude.toByteArray();
+        final int offset = bytes[0] == 0 && bytes.length > 1 ? 1 : 0; // sign byte
+        head(BYTES, bytes.length - offset);
+        writeBytes(bytes, offset, bytes.length - offset);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(final int value) {
+        return write((long) value);
+    }
+
+    @Override
+    public JsonGenerator write(final long value) {
+        if (value >= 0) {
+            head(UNSIGNED, value);
+        } else {
+            head(NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new NumberFormatException("JSON doesn't support " + value);
+        }
+        final float asFloat = (float) value;
+        if (asFloat == value) {
+            writeByte(FLOAT);
+            writeInt(Float.floatToIntBits(asFloat));
+        } else {
+            writeByte(DOUBLE);
+            writeLong(Double.doubleToLongBits(value));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(final boolean value) {
+        writeByte(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeNull() {
+        writeByte(NULL);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            out.close();
+        } catch (final IOException e) {
+            throw new JsonException(e.getMessage(), e);
+        }
+        if (depth != 0) {
+            throw new JsonGenerationException("Unclosed object or array");
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.write(buffer, 0, position);
+            position = 0;
+            out.flush();
+        } catch (final IOException e) {
+            throw new JsonException(e.getMessage(), e);
+        }
+    }
+
+    private void key(final String name) {
+        write(name);
+    }
+
+    private void head(final int major, final long value) { // value is unsigned
+        final int type = major << 5;
+        if (value < 24) {
+            writeByte(type | (int) value);
+        } else if (value <= 0xFF) {
+            writeByte(type | 24);
+            writeByte((int) value);
+        } else if (value <= 0xFFFF) {
+            writeByte(type | 25);
+            writeByte((int) (value >> 8));
+            writeByte((int) value);
+        } else if (value <= 0xFFFFFFFFL) {
+            writeByte(type | 26);
+            writeInt((int) value);
+        } else {
+            writeByte(type | 27);
+            writeLong(value);
+        }
+    }
+
+    private void writeInt(final int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    private void writeLong(final long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeByte(final int b) {
+        if (position == buffer.length) {
+            drain();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void writeBytes(final byte[] bytes, final int offset, final int length) {
+        if (length > buffer.length - position) {
+            drain();
+            if (length > buffer.length) {
+                try {
+                    out.write(bytes, offset, length);
+                } catch (final IOException e) {
+                    throw new JsonException(e.getMessage(), e);
+                }
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void drain() {
+        try {
+            out.write(buffer, 0, position);
+            position = 0;
+        } catch (final IOException e) {
+            throw new JsonException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.apache.microwave.cbor;
+
+import org.apache.johnzon.mapper.Mapper;
+import org.apache.johnzon.mapper.MapperBuilder;
+
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+
+// application/cbor flavor of JohnzonProvider/JsrProvider: same johnzon mapping (annotations, adapters, accessors),
+// only the wire format changes. Resources opt in listing application/cbor in their @Produces/@Consumes.
+@Provider
+@Produces(CborProvider.MEDIA_TYPE)
+@Consumes(CborProvider.MEDIA_TYPE)
+public class CborProvider<T> implements MessageBodyReader<T>, MessageBodyWriter<T> {
+    public static final String MEDIA_TYPE = "application/cbor";
+    public static final MediaType MEDIA_TYPE_TYPE = MediaType.valueOf(MEDIA_TYPE);
+
+    private final CborFactory factory = new CborFactory();
+    private final Mapper mapper;
+
+    public CborProvider() {
+        this.mapper = new MapperBuilder()
+                .setReaderFactory(factory)
+                .setGeneratorFactory(factory)
+                .setDoCloseOnStreams(false)
+                .build();
+    }
+
+    @Override
+    public boolean isReadable(final Class<?> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType) {
+        return !isRaw(type);
+    }
+
+    @Override
+    public T readFrom(final Class<T> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType,
+                      final MultivaluedMap<String, String> httpHeaders, final InputStream entityStream) {
+        if (JsonStructure.class.isAssignableFrom(type)) {
+            return type.cast(factory.createReader(entityStream).read());
+        }
+        if (type.isArray()) {
+            return type.cast(mapper.readArray(entityStream, type.getComponentType()));
+        }
+        if (Collection.class.isAssignableFrom(type) && ParameterizedType.class.isInstance(genericType)) {
+            return type.cast(mapper.readCollection(entityStream, ParameterizedType.class.cast(genericType)));
+        }
+        return mapper.readObject(entityStream, genericType);
+    }
+
+    @Override
+    public boolean isWriteable(final Class<?> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType) {
+        return !isRaw(type) && !StreamingOutput.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(final T t, final Class<?> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(final T t, final Class<?> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType,
+                        final MultivaluedMap<String, Object> httpHeaders, final OutputStream entityStream) {
+        if (JsonValue.class.isInstance(t)) {
+            final JsonGenerator generator = factory.createGenerator(entityStream);
+            generator.write(JsonValue.class.cast(t));
+            generator.flush();
+        } else if (type.isArray()) {
+            mapper.writeArray(t, entityStream);
+        } else { // collections too, mapper.writeArray(Collection) would use a Writer
+            mapper.writeObject(t, entityStream);
+        }
+    }
+
+    private static boolean isRaw(final Class<?> type) {
+        return type == String.class || type == byte[].class || InputStream.class.isAssignableFrom(type) || Reader.class.isAssignableFrom(type)
+                || OutputStream.class.isAssignableFrom(type) || Writer.class.isAssignableFrom(type) || Response.class.isAssignableFrom(type);
+    }
+}
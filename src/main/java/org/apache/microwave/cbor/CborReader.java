@@ -0,0 +1,355 @@
+package org.apache.microwave.cbor;
+
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.apache.microwave.cbor.CborGenerator.ARRAY;
+import static org.apache.microwave.cbor.CborGenerator.BREAK;
+import static org.apache.microwave.cbor.CborGenerator.BYTES;
+import static org.apache.microwave.cbor.CborGenerator.DOUBLE;
+import static org.apache.microwave.cbor.CborGenerator.FALSE;
+import static org.apache.microwave.cbor.CborGenerator.FLOAT;
+import static org.apache.microwave.cbor.CborGenerator.HALF;
+import static org.apache.microwave.cbor.CborGenerator.INDEFINITE;
+import static org.apache.microwave.cbor.CborGenerator.MAP;
+import static org.apache.microwave.cbor.CborGenerator.NEGATIVE;
+import static org.apache.microwave.cbor.CborGenerator.NULL;
+import static org.apache.microwave.cbor.CborGenerator.SIMPLE;
+import static org.apache.microwave.cbor.CborGenerator.TAG;
+import static org.apache.microwave.cbor.CborGenerator.TAG_DECIMAL_FRACTION;
+import static org.apache.microwave.cbor.CborGenerator.TAG_NEGATIVE_BIGNUM;
+import static org.apache.microwave.cbor.CborGenerator.TAG_POSITIVE_BIGNUM;
+import static org.apache.microwave.cbor.CborGenerator.TEXT;
+import static org.apache.microwave.cbor.CborGenerator.TRUE;
+import static org.apache.microwave.cbor.CborGenerator.UNDEFINED;
+import static org.apache.microwave.cbor.CborGenerator.UNSIGNED;
+
+// RFC 7049 decoder building the JSON-P model (what the johnzon mapper reads when the reader factory is not johnzon's one):
+// byte strings become base64 strings, unknown tags are skipped (their content is kept) and other simple values are null.
+public class CborReader implements JsonReader {
+    private static final int MAX_DEPTH = 512;
+    private static final Object END = new Object(); // break marker of indefinite containers
+
+    private final InputStream in;
+    private final JsonBuilderFactory builders;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+    private int depth;
+
+    public CborReader(final InputStream in, final JsonBuilderFactory builders) {
+        this.in = in;
+        this.builders = builders;
+    }
+
+    @Override
+    public JsonStructure read() {
+        final Object value = item();
+        if (!JsonStructure.class.isInstance(value)) {
+            throw new JsonException("Expected a CBOR map or array");
+        }
+        return JsonStructure.class.cast(value);
+    }
+
+    @Override
+    public JsonObject readObject() {
+        final JsonStructure structure = read();
+        if (!JsonObject.class.isInstance(structure)) {
+            throw new JsonException("Expected a CBOR map");
+        }
+        return JsonObject.class.cast(structure);
+    }
+
+    @Override
+    public JsonArray readArray() {
+        final JsonStructure structure = read();
+        if (!JsonArray.class.isInstance(structure)) {
+            throw new JsonException("Expected a CBOR array");
+        }
+        return JsonArray.class.cast(structure);
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (final IOException e) {
+            throw new JsonException(e.getMessage(), e);
+        }
+    }
+
+    // Long, BigInteger, BigDecimal, Double, String, Boolean, JsonValue (containers, null) or END
+    private Object item() {
+        final int initial = nextByte();
+        final int major = initial >>> 5;
+        final int info = initial & 0x1F;
+        switch (major) {
+            case UNSIGNED: {
+                final long value = length(info);
+                return value >= 0 ? (Object) value : new BigInteger(Long.toUnsignedString(value));
+            }
+            case NEGATIVE: {
+                final long value = length(info);
+                return value >= 0 ? (Object) (-1 - value) : new BigInteger(Long.toUnsignedString(value)).negate().subtract(BigInteger.ONE);
+            }
+            case BYTES:
+                return Base64.getEncoder().encodeToString(bytes(info, BYTES));
+            case TEXT:
+                return new String(bytes(info, TEXT), StandardCharsets.UTF_8);
+            case ARRAY:
+                return array(info);
+            case MAP:
+                return map(info);
+            case TAG:
+                return tagged(length(info));
+            case SIMPLE:
+                return simple(initial);
+            default:
+                throw new IllegalStateException("unreachable");
+        }
+    }
+
+    // tags nest like containers (a tag can wrap a tag) so they count against MAX_DEPTH
+    private Object tagged(final long tag) {
+        enter();
+        final Object value = tagContent(tag);
+        depth--;
+        return value;
+    }
+
+    private Object tagContent(final long tag) {
+        if (tag == TAG_POSITIVE_BIGNUM || tag == TAG_NEGATIVE_BIGNUM) {
+            final int initial = nextByte();
+            if (initial >>> 5 != BYTES) {
+                throw new JsonException("Invalid bignum");
+            }
+            final BigInteger magnitude = new BigInteger(1, bytes(initial & 0x1F, BYTES));
+            return tag == TAG_POSITIVE_BIGNUM ? magnitude : magnitude.negate().subtract(BigInteger.ONE);
+        }
+        if (tag == TAG_DECIMAL_FRACTION) {
+            final Object value = item();
+            if (!JsonArray.class.isInstance(value) || JsonArray.class.cast(value).size() != 2) {
+                throw new JsonException("Invalid decimal fraction");
+            }
+            final JsonArray parts = JsonArray.class.cast(value);
+            return new BigDecimal(parts.getJsonNumber(1).bigIntegerValue(), -parts.getJsonNumber(0).intValueExact());
+        }
+        return item(); // semantic we don't know (date, uri...), the value is still meaningful
+    }
+
+    private Object simple(final int initial) {
+        switch (initial) {
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case HALF: {
+                final int bits = nextByte() << 8 | nextByte();
+                final int exponent = (bits >> 10) & 0x1F;
+                final int mantissa = bits & 0x3FF;
+                final double value = exponent == 0 ? mantissa * Math.pow(2, -24)
+                        : exponent != 31 ? (mantissa + 1024) * Math.pow(2, exponent - 25) : mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+                return (bits & 0x8000) != 0 ? -value : value;
+            }
+            case FLOAT:
+                return (double) Float.intBitsToFloat(readInt());
+            case DOUBLE:
+                return Double.longBitsToDouble((long) readInt() << 32 | readInt() & 0xFFFFFFFFL);
+            case BREAK:
+                return END;
+            case NULL:
+            case UNDEFINED:
+            default:
+                if ((initial & 0x1F) == 24) { // one byte simple value
+                    nextByte();
+                }
+                return JsonValue.NULL;
+        }
+    }
+
+    private JsonArray array(final int info) {
+        enter();
+        final JsonArrayBuilder builder = builders.createArrayBuilder();
+        if (info == INDEFINITE) {
+            Object value;
+            while ((value = item()) != END) {
+                add(builder, value);
+            }
+        } else {
+            final long size = length(info);
+            for (long i = 0; i < size; i++) {
+                add(builder, value());
+            }
+        }
+        depth--;
+        return builder.build();
+    }
+
+    private JsonObject map(final int info) {
+        enter();
+        final JsonObjectBuilder builder = builders.createObjectBuilder();
+        if (info == INDEFINITE) {
+            Object key;
+            while ((key = item()) != END) {
+                add(builder, String.valueOf(key), value());
+            }
+        } else {
+            final long size = length(info);
+            for (long i = 0; i < size; i++) {
+                add(builder, String.valueOf(value()), value());
+            }
+        }
+        depth--;
+        return builder.build();
+    }
+
+    private Object value() {
+        final Object value = item();
+        if (value == END) {
+            throw new JsonException("Unexpected break");
+        }
+        return value;
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw new JsonException("More than " + MAX_DEPTH + " nested CBOR containers or tags");
+        }
+    }
+
+    private static void add(final JsonArrayBuilder builder, final Object value) {
+        if (Long.class.isInstance(value)) {
+            builder.add(Long.class.cast(value).longValue());
+        } else if (String.class.isInstance(value)) {
+            builder.add(String.class.cast(value));
+        } else if (Double.class.isInstance(value)) {
+            builder.add(Double.class.cast(value).doubleValue());
+        } else if (Boolean.class.isInstance(value)) {
+            builder.add(Boolean.class.cast(value));
+        } else if (BigInteger.class.isInstance(value)) {
+            builder.add(BigInteger.class.cast(value));
+        } else if (BigDecimal.class.isInstance(value)) {
+            builder.add(BigDecimal.class.cast(value));
+        } else {
+            builder.add(JsonValue.class.cast(value));
+        }
+    }
+
+    private static void add(final JsonObjectBuilder builder, final String key, final Object value) {
+        if (Long.class.isInstance(value)) {
+            builder.add(key, Long.class.cast(value).longValue());
+        } else if (String.class.isInstance(value)) {
+            builder.add(key, String.class.cast(value));
+        } else if (Double.class.isInstance(value)) {
+            builder.add(key, Double.class.cast(value).doubleValue());
+        } else if (Boolean.class.isInstance(value)) {
+            builder.add(key, Boolean.class.cast(value));
+        } else if (BigInteger.class.isInstance(value)) {
+            builder.add(key, BigInteger.class.cast(value));
+        } else if (BigDecimal.class.isInstance(value)) {
+            builder.add(key, BigDecimal.class.cast(value));
+        } else {
+            builder.add(key, JsonValue.class.cast(value));
+        }
+    }
+
+    // string content, definite or as indefinite chunks of the same major type
+    private byte[] bytes(final int info, final int major) {
+        if (info != INDEFINITE) {
+            return readBytes(length(info));
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int initial;
+        while ((initial = nextByte()) != BREAK) {
+            if (initial >>> 5 != major) {
+                throw new JsonException("Invalid chunk in an indefinite string");
+            }
+            final byte[] chunk = readBytes(length(initial & 0x1F));
+            out.write(chunk, 0, chunk.length);
+        }
+        return out.toByteArray();
+    }
+
+    // raw argument, a negative long means a value over Long.MAX_VALUE
+    private long length(final int info) {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return nextByte();
+            case 25:
+                return nextByte() << 8 | nextByte();
+            case 26:
+                return readInt() & 0xFFFFFFFFL;
+            case 27:
+                return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+            default:
+                throw new JsonException("Invalid CBOR additional information: " + info);
+        }
+    }
+
+    private byte[] readBytes(final long length) {
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new JsonException("CBOR string too long: " + Long.toUnsignedString(length));
+        }
+        final int size = (int) length;
+        if (size <= limit - position) {
+            final byte[] bytes = new byte[size];
+            System.arraycopy(buffer, position, bytes, 0, size);
+            position += size;
+            return bytes;
+        }
+        // don't trust the announced length to allocate, grow with what is actually read
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(size, 64 * 1024));
+        int remaining = size;
+        while (remaining > 0) {
+            if (position == limit) {
+                fill();
+            }
+            final int chunk = Math.min(remaining, limit - position);
+            out.write(buffer, position, chunk);
+            position += chunk;
+            remaining -= chunk;
+        }
+        return out.toByteArray();
+    }
+
+    private int readInt() {
+        return nextByte() << 24 | nextByte() << 16 | nextByte() << 8 | nextByte();
+    }
+
+    private int nextByte() {
+        if (position == limit) {
+            fill();
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private void fill() {
+        try {
+            final int read = in.read(buffer);
+            if (read <= 0) {
+                throw new JsonException("Unexpected end of CBOR input");
+            }
+            position = 0;
+            limit = read;
+        } catch (final IOException e) {
+            throw new JsonException(e.getMessage(), e);
+        }
+    }
+}
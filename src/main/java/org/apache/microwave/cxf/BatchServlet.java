@@ -0,0 +1,320 @@
+package org.apache.microwave.cxf;
+
+import org.apache.microwave.tomcat.InProcessInvoker;
+import org.apache.microwave.tomcat.InProcessResponse;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonParsingException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+// POST a JSON array of sub-requests:
+// [{"id":"user","method":"GET","path":"/api/user","headers":{"Accept":"application/json"}},
+//  {"id":"save","method":"POST","path":"/api/pref","body":{"theme":"dark"},"after":["user"]}]
+// sub-requests run in process (no socket, see InProcessInvoker) in parallel on a bounded pool,
+// "after" lists the ids which must complete first. The response is the array of the results in the request order:
+// [{"id":"user","status":200,"headers":{...},"body":{...}}, ...], JSON bodies are inlined, others are strings.
+// Authorization and Cookie headers of the batch request are propagated to the sub-requests which don't set them,
+// sub-requests also keep its client address and scheme and can't be batches themselves.
+// Paths stay in the batch context ("/../" is rejected), asynchronous resources can't be batched (501)
+// and the sub-requests not done after the timeout get a 504.
+public class BatchServlet extends HttpServlet {
+    private static final Collection<String> PROPAGATED_HEADERS = asList("Authorization", "Cookie");
+
+    private final InProcessInvoker invoker;
+    private final int threads;
+    private final int maxRequests;
+    private final long timeout;
+    private ThreadPoolExecutor pool;
+
+    public BatchServlet(final InProcessInvoker invoker, final int threads, final int maxRequests, final long timeout) {
+        this.invoker = invoker;
+        this.threads = threads;
+        this.maxRequests = maxRequests;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void init() throws ServletException {
+        final AtomicInteger counter = new AtomicInteger();
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(threads * 64), r -> {
+            final Thread thread = new Thread(r, "microwave-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(loader);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy()); // saturated: the batch thread executes its sub-requests itself
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        if (req.getAttribute(InProcessInvoker.ORIGIN) != null) { // whatever the path looks like (//, /./, ;x, %xx...)
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Nested batches are not supported");
+            return;
+        }
+
+        final JsonArray requests;
+        try (final JsonReader reader = Json.createReader(req.getInputStream())) {
+            requests = reader.readArray();
+        } catch (final JsonException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a JSON array of requests");
+            return;
+        }
+        if (requests.size() > maxRequests) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "At most " + maxRequests + " requests per batch");
+            return;
+        }
+
+        final Map<String, JsonObject> byId = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i).getValueType() != JsonValue.ValueType.OBJECT) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a JSON array of requests");
+                return;
+            }
+            final JsonObject request = requests.getJsonObject(i);
+            final String invalid = validate(request);
+            if (invalid != null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Request #" + i + ": " + invalid);
+                return;
+            }
+            if (byId.put(request.getString("id", Integer.toString(i)), request) != null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Duplicated id: " + request.getString("id"));
+                return;
+            }
+        }
+
+        final CompletableFuture<JsonObject> start = new CompletableFuture<>(); // nothing runs before the whole graph is valid
+        final Map<String, CompletableFuture<JsonObject>> results = new HashMap<>();
+        final List<CompletableFuture<JsonObject>> ordered = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final String id = requests.getJsonObject(i).getString("id", Integer.toString(i));
+            final CompletableFuture<JsonObject> result = schedule(id, byId, results, new ArrayList<>(), start, req);
+            if (result == null) {
+                start.cancel(false);
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown or cyclic 'after' reference from: " + id);
+                return;
+            }
+            ordered.add(result);
+        }
+        start.complete(null);
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        final JsonArrayBuilder responses = Json.createArrayBuilder();
+        for (int i = 0; i < ordered.size(); i++) {
+            final String id = requests.getJsonObject(i).getString("id", Integer.toString(i));
+            try {
+                responses.add(ordered.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (final TimeoutException e) { // still running, its result is dropped
+                responses.add(error(id, HttpServletResponse.SC_GATEWAY_TIMEOUT, "Not done after " + timeout + "ms"));
+            } catch (final ExecutionException e) {
+                responses.add(error(id, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getCause().getMessage()));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                responses.add(error(id, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted"));
+            }
+        }
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        try (final JsonWriter writer = Json.createWriter(resp.getOutputStream())) {
+            writer.writeArray(responses.build());
+        }
+    }
+
+    private CompletableFuture<JsonObject> schedule(final String id, final Map<String, JsonObject> requests,
+                                                   final Map<String, CompletableFuture<JsonObject>> results,
+                                                   final List<String> path, final CompletableFuture<JsonObject> start,
+                                                   final HttpServletRequest batch) {
+        final CompletableFuture<JsonObject> existing = results.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        final JsonObject request = requests.get(id);
+        if (request == null || path.contains(id)) {
+            return null;
+        }
+
+        path.add(id);
+        final Collection<CompletableFuture<JsonObject>> dependencies = new ArrayList<>();
+        dependencies.add(start);
+        final JsonArray after = request.containsKey("after") ? request.getJsonArray("after") : null;
+        if (after != null) {
+            for (final JsonString dependency : after.getValuesAs(JsonString.class)) {
+                final CompletableFuture<JsonObject> future = schedule(dependency.getString(), requests, results, path, start, batch);
+                if (future == null) {
+                    return null;
+                }
+                dependencies.add(future);
+            }
+        }
+        path.remove(path.size() - 1);
+
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (final String header : PROPAGATED_HEADERS) {
+            final String value = batch.getHeader(header);
+            if (value != null) {
+                headers.put(header, singletonList(value));
+            }
+        }
+        final JsonObject requestHeaders = request.containsKey("headers") ? request.getJsonObject("headers") : null;
+        if (requestHeaders != null) {
+            for (final String header : requestHeaders.keySet()) {
+                headers.put(header, singletonList(requestHeaders.getString(header)));
+            }
+        }
+        final JsonValue body = request.get("body");
+        if (body != null && body.getValueType() != JsonValue.ValueType.STRING && body.getValueType() != JsonValue.ValueType.NULL && !headers.containsKey("Content-Type")) {
+            headers.put("Content-Type", singletonList("application/json"));
+        }
+
+        final String uri = batch.getContextPath() + request.getString("path", "/");
+        final CompletableFuture<JsonObject> result = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[dependencies.size()]))
+                .thenApplyAsync(ignored -> {
+                    try {
+                        return toJson(id, invoker.invoke(request.getString("method", "GET"), uri, headers, toBytes(body), batch));
+                    } catch (final UnsupportedOperationException e) { // async resource
+                        return error(id, HttpServletResponse.SC_NOT_IMPLEMENTED, e.getMessage());
+                    } catch (final RuntimeException e) {
+                        return error(id, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+                    }
+                }, pool);
+        results.put(id, result);
+        return result;
+    }
+
+    // the shape of a sub-request, the body is free
+    private static String validate(final JsonObject request) {
+        for (final String key : asList("id", "method", "path")) {
+            if (request.containsKey(key) && request.get(key).getValueType() != JsonValue.ValueType.STRING) {
+                return "'" + key + "' must be a string";
+            }
+        }
+        if (request.containsKey("path") && leavesContext(request.getString("path"))) {
+            return "'path' must be absolute in the batch context";
+        }
+        final JsonValue headers = request.get("headers");
+        if (headers != null) {
+            if (headers.getValueType() != JsonValue.ValueType.OBJECT
+                    || JsonObject.class.cast(headers).values().stream().anyMatch(v -> v.getValueType() != JsonValue.ValueType.STRING)) {
+                return "'headers' must be an object of strings";
+            }
+        }
+        final JsonValue after = request.get("after");
+        if (after != null) {
+            if (after.getValueType() != JsonValue.ValueType.ARRAY
+                    || JsonArray.class.cast(after).stream().anyMatch(v -> v.getValueType() != JsonValue.ValueType.STRING)) {
+                return "'after' must be an array of ids";
+            }
+        }
+        return null;
+    }
+
+    // the path is appended to the batch context path: it must start with a slash and tomcat must not normalize
+    // it out of the context, dot segments are resolved as tomcat does (decoded, path parameters ignored)
+    private static boolean leavesContext(final String path) {
+        if (!path.startsWith("/")) {
+            return true;
+        }
+        final int query = path.indexOf('?');
+        final String decoded;
+        try {
+            decoded = URLDecoder.decode((query < 0 ? path : path.substring(0, query)).replace("+", "%2B"), "UTF-8");
+        } catch (final IllegalArgumentException | UnsupportedEncodingException e) {
+            return true;
+        }
+        int depth = 0;
+        for (final String segment : decoded.replace('\\', '/').split("/")) {
+            final int parameters = segment.indexOf(';');
+            final String name = parameters < 0 ? segment : segment.substring(0, parameters);
+            if ("..".equals(name)) {
+                if (--depth < 0) {
+                    return true;
+                }
+            } else if (!name.isEmpty() && !".".equals(name)) {
+                depth++;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] toBytes(final JsonValue body) {
+        if (body == null || body.getValueType() == JsonValue.ValueType.NULL) {
+            return null;
+        }
+        if (body.getValueType() == JsonValue.ValueType.STRING) {
+            return JsonString.class.cast(body).getString().getBytes(StandardCharsets.UTF_8);
+        }
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonObject toJson(final String id, final InProcessResponse response) {
+        final JsonObjectBuilder headers = Json.createObjectBuilder();
+        for (final Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+            headers.add(header.getKey(), String.join(",", header.getValue()));
+        }
+        final JsonObjectBuilder json = Json.createObjectBuilder()
+                .add("id", id)
+                .add("status", response.getStatus())
+                .add("headers", headers);
+        final String contentType = response.getHeader("Content-Type");
+        final String body = response.getBodyAsString();
+        if (body.isEmpty()) {
+            json.addNull("body");
+        } else if (contentType != null && contentType.contains("json")) {
+            try (final JsonReader reader = Json.createReader(new StringReader(body))) {
+                json.add("body", reader.read());
+            } catch (final JsonParsingException e) {
+                json.add("body", body);
+            }
+        } else {
+            json.add("body", body);
+        }
+        return json.build();
+    }
+
+    private static JsonObject error(final String id, final int status, final String message) {
+        return Json.createObjectBuilder()
+                .add("id", id)
+                .add("status", status)
+                .add("headers", Json.createObjectBuilder())
+                .add("body", message == null ? "" : message)
+                .build();
+    }
+}
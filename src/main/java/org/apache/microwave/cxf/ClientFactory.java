@@ -0,0 +1,150 @@
+package org.apache.microwave.cxf;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.client.WebTarget;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.util.Collections.unmodifiableMap;
+
+// shared JAX-RS client: pooled/async conduit and timeouts come from client.* properties (see CxfCdiAutoSetup),
+// targets are bound to the application bus whatever the calling thread is
+@ApplicationScoped
+public class ClientFactory {
+    private static final String START = ClientFactory.class.getName() + ".start";
+
+    @Inject
+    private Bus bus;
+
+    private Client client;
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        client = ClientBuilder.newClient();
+        setIfPresent("client.connectionTimeout", "http.connection.timeout");
+        setIfPresent("client.receiveTimeout", "http.receive.timeout");
+        client.register(new LatencyFilter());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        client.close();
+    }
+
+    public WebTarget target(final String uri) {
+        return target(URI.create(uri));
+    }
+
+    public WebTarget target(final URI uri) {
+        return bind(withBus(() -> client.target(uri)));
+    }
+
+    public Map<String, Latency> getLatencies() {
+        return unmodifiableMap(latencies);
+    }
+
+    private WebTarget bind(final WebTarget target) {
+        return WebTarget.class.cast(Proxy.newProxyInstance(ClientFactory.class.getClassLoader(), new Class<?>[]{WebTarget.class},
+                (proxy, method, args) -> {
+                    final Object result = withBus(() -> {
+                        try {
+                            return method.invoke(target, args);
+                        } catch (final IllegalAccessException e) {
+                            throw new IllegalStateException(e);
+                        } catch (final InvocationTargetException e) {
+                            final Throwable cause = e.getCause();
+                            throw RuntimeException.class.isInstance(cause) ? RuntimeException.class.cast(cause) : new IllegalStateException(cause);
+                        }
+                    });
+                    return WebTarget.class.isInstance(result) ? bind(WebTarget.class.cast(result)) : result;
+                }));
+    }
+
+    private <T> T withBus(final Supplier<T> task) { // the conduit is selected from the thread bus
+        final Bus old = BusFactory.getAndSetThreadDefaultBus(bus);
+        try {
+            return task.get();
+        } finally {
+            BusFactory.setThreadDefaultBus(old);
+        }
+    }
+
+    private void setIfPresent(final String busKey, final String clientKey) {
+        final Object value = bus.getProperty(busKey);
+        if (value != null) {
+            client.property(clientKey, Long.parseLong(value.toString()));
+        }
+    }
+
+    public static class Latency {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private void add(final long duration) {
+            count.increment();
+            total.add(duration);
+            long current;
+            while ((current = max.get()) < duration && !max.compareAndSet(current, duration)) {
+                // retry
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMaxMs() {
+            return TimeUnit.NANOSECONDS.toMillis(max.get());
+        }
+
+        public double getAverageMs() {
+            final long c = count.sum();
+            return c == 0 ? 0 : total.sum() / (double) c / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return "Latency{count=" + getCount() + ", average=" + getAverageMs() + "ms, max=" + getMaxMs() + "ms}";
+        }
+    }
+
+    private class LatencyFilter implements ClientRequestFilter, ClientResponseFilter {
+        @Override
+        public void filter(final ClientRequestContext requestContext) {
+            requestContext.setProperty(START, System.nanoTime());
+        }
+
+        @Override
+        public void filter(final ClientRequestContext requestContext, final ClientResponseContext responseContext) {
+            final Object start = requestContext.getProperty(START);
+            if (start == null) {
+                return;
+            }
+            final URI uri = requestContext.getUri();
+            final String key = uri.getScheme() + "://" + uri.getHost() + ':' + uri.getPort();
+            latencies.computeIfAbsent(key, k -> new Latency()).add(System.nanoTime() - Long.class.cast(start));
+        }
+    }
+}
@@ -3,17 +3,25 @@ package org.apache.microwave.cxf;
 import org.apache.cxf.cdi.CXFCdiServlet;
 import org.apache.cxf.jaxrs.provider.ServerProviderFactory;
 import org.apache.cxf.transport.ChainInitiationObserver;
-import org.apache.johnzon.jaxrs.DelegateProvider;
+import org.apache.cxf.transport.http.HTTPConduitConfigurer;
+import org.apache.cxf.transport.http.asyncclient.AsyncHTTPConduitFactory;
+import org.apache.cxf.transports.http.configuration.ConnectionType;
+import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
 import org.apache.johnzon.jaxrs.JohnzonProvider;
 import org.apache.johnzon.jaxrs.JsrProvider;
 import org.apache.microwave.Microwave;
+import org.apache.microwave.cbor.CborProvider;
+import org.apache.microwave.jfr.MicrowaveEvents;
+import org.apache.microwave.tomcat.InProcessInvoker;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContainerInitializer;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRegistration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
 
 import static java.util.Arrays.asList;
@@ -25,12 +33,22 @@ public class CxfCdiAutoSetup implements ServletContainerInitializer {
         final ServletRegistration.Dynamic jaxrs = ctx.addServlet("cxf-cdi", new CXFCdiServlet() {
             @Override
             protected void loadBus(final ServletConfig servletConfig) {
+                try (final MicrowaveEvents.Span ignored = MicrowaveEvents.busLoad(servletConfig.getServletContext().getContextPath())) {
+                    doLoadBus(servletConfig);
+                }
+            }
+
+            private void doLoadBus(final ServletConfig servletConfig) {
                 super.loadBus(servletConfig);
+                setupClient(builder.properties());
                 if (!"true".equalsIgnoreCase(builder.properties().getProperty("microwave.jaxrs.providers.setup", "true"))) {
                     return;
                 }
 
-                final List<DelegateProvider<?>> providers = asList(new JohnzonProvider<>(), new JsrProvider());
+                final List<Object> providers = new ArrayList<>(asList(new JohnzonProvider<>(), new JsrProvider()));
+                if (builder.cbor()) {
+                    providers.add(new CborProvider<>());
+                }
 
                 // client
                 if (bus.getProperty("org.apache.cxf.jaxrs.bus.providers") == null) {
@@ -46,9 +64,65 @@ public class CxfCdiAutoSetup implements ServletContainerInitializer {
                             providerFactory.setUserProviders(providers);
                         });
             }
+
+            // pool and async conduit are bus wide (AsyncHTTPConduitFactory), timeouts are read by ClientFactory,
+            // unset keys keep the CXF defaults
+            private void setupClient(final Properties properties) {
+                for (final String key : properties.stringPropertyNames()) {
+                    if (!key.startsWith("client.")) {
+                        continue;
+                    }
+                    final String value = properties.getProperty(key);
+                    switch (key.substring("client.".length())) {
+                        case "maxConnections":
+                            bus.setProperty(AsyncHTTPConduitFactory.MAX_CONNECTIONS, value);
+                            break;
+                        case "maxConnectionsPerHost":
+                            bus.setProperty(AsyncHTTPConduitFactory.MAX_PER_HOST_CONNECTIONS, value);
+                            break;
+                        case "async":
+                            bus.setProperty(AsyncHTTPConduitFactory.USE_POLICY, value);
+                            break;
+                        case "keepAlive": { // HTTP keep-alive (Connection header) of both conduits
+                            final ConnectionType connection = Boolean.parseBoolean(value) ? ConnectionType.KEEP_ALIVE : ConnectionType.CLOSE;
+                            final HTTPConduitConfigurer previous = bus.getExtension(HTTPConduitConfigurer.class);
+                            bus.setExtension((name, address, conduit) -> {
+                                if (previous != null) {
+                                    previous.configure(name, address, conduit);
+                                }
+                                if (conduit.getClient() == null) { // configurers run before the conduit defaults it
+                                    conduit.setClient(new HTTPClientPolicy());
+                                }
+                                conduit.getClient().setConnection(connection);
+                            }, HTTPConduitConfigurer.class);
+                            break;
+                        }
+                        case "soKeepAlive": // TCP keep-alive, async conduit only
+                            bus.setProperty(AsyncHTTPConduitFactory.SO_KEEPALIVE, value);
+                            break;
+                        case "connectionTTL":
+                            bus.setProperty(AsyncHTTPConduitFactory.CONNECTION_TTL, value);
+                            break;
+                        case "connectionMaxIdle":
+                            bus.setProperty(AsyncHTTPConduitFactory.CONNECTION_MAX_IDLE, value);
+                            break;
+                        case "ioThreads":
+                            bus.setProperty(AsyncHTTPConduitFactory.THREAD_COUNT, value);
+                            break;
+                        default:
+                            bus.setProperty(key, value);
+                    }
+                }
+            }
         });
-        jaxrs.setLoadOnStartup(1);
+        jaxrs.setLoadOnStartup(builder.lazyInit() ? -1 : 1); // lazy: loaded by the first request, after CDI
         jaxrs.setAsyncSupported(true);
         jaxrs.addMapping(builder.jaxrsMapping());
+
+        if (builder.batchMapping() != null) {
+            final InProcessInvoker invoker = InProcessInvoker.class.cast(ctx.getAttribute(InProcessInvoker.class.getName()));
+            final ServletRegistration.Dynamic batch = ctx.addServlet("microwave-batch", new BatchServlet(invoker, builder.batchThreads(), builder.batchMaxRequests(), builder.batchTimeout()));
+            batch.addMapping(builder.batchMapping());
+        }
     }
 }
@@ -0,0 +1,95 @@
+package org.apache.microwave.cxf;
+
+import org.apache.cxf.helpers.CastUtils;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.transport.AbstractConduit;
+import org.apache.cxf.ws.addressing.EndpointReferenceType;
+import org.apache.microwave.tomcat.InProcessResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import static java.util.Collections.singletonList;
+
+public class InProcessConduit extends AbstractConduit {
+    private static final Logger LOGGER = Logger.getLogger(InProcessConduit.class.getName());
+    private static final String BODY = InProcessConduit.class.getName() + ".body";
+
+    public InProcessConduit(final EndpointReferenceType target) {
+        super(target);
+    }
+
+    @Override
+    public void prepare(final Message message) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        message.put(BODY, body);
+        message.setContent(OutputStream.class, body);
+    }
+
+    @Override
+    public void close(final Message message) throws IOException {
+        super.close(message); // flushes interceptors streams
+        final ByteArrayOutputStream body = ByteArrayOutputStream.class.cast(message.remove(BODY));
+        if (body == null) { // already sent
+            return;
+        }
+
+        String address = String.class.cast(message.get(Message.ENDPOINT_ADDRESS));
+        final String pathInfo = String.class.cast(message.get(Message.PATH_INFO));
+        if (pathInfo != null && !address.endsWith(pathInfo)) {
+            address += pathInfo;
+        }
+        final String query = String.class.cast(message.get(Message.QUERY_STRING));
+        if (query != null && !query.isEmpty() && !address.contains("?")) {
+            address += "?" + query;
+        }
+        final String withoutPrefix = address.substring(InProcessTransportFactory.PREFIX.length());
+        final int slash = withoutPrefix.indexOf('/');
+        final String authority = slash < 0 ? withoutPrefix : withoutPrefix.substring(0, slash);
+        final String uri = slash < 0 ? "/" : withoutPrefix.substring(slash);
+
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final Map<String, List<String>> protocolHeaders = CastUtils.cast(Map.class.cast(message.get(Message.PROTOCOL_HEADERS)));
+        if (protocolHeaders != null) {
+            headers.putAll(protocolHeaders);
+        }
+        final Object contentType = message.get(Message.CONTENT_TYPE);
+        if (contentType != null && !headers.containsKey("Content-Type")) {
+            headers.put("Content-Type", singletonList(contentType.toString()));
+        }
+
+        final String method = String.class.cast(message.get(Message.HTTP_REQUEST_METHOD));
+        final String httpMethod = method == null ? "POST" : method;
+        final byte[] payload = body.toByteArray();
+        final InProcessDestination destination = InProcessTransportFactory.findDestination(address);
+        final InProcessResponse response;
+        if (destination != null) {
+            response = destination.invoke(httpMethod, address, headers, payload.length == 0 ? null : payload);
+        } else {
+            response = InProcessTransportFactory.find(authority).invoke(httpMethod, uri, headers, payload.length == 0 ? null : payload);
+        }
+
+        final Exchange exchange = message.getExchange();
+        final Message inMessage = new MessageImpl();
+        inMessage.setExchange(exchange);
+        inMessage.put(Message.RESPONSE_CODE, response.getStatus());
+        inMessage.put(Message.PROTOCOL_HEADERS, new TreeMap<>(response.getHeaders()));
+        inMessage.put(Message.CONTENT_TYPE, response.getHeader("Content-Type"));
+        inMessage.setContent(InputStream.class, new ByteArrayInputStream(response.getBody()));
+        incomingObserver.onMessage(inMessage);
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+}
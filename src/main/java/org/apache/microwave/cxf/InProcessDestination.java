@@ -0,0 +1,130 @@
+package org.apache.microwave.cxf;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.helpers.CastUtils;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.AbstractDestination;
+import org.apache.cxf.transport.Conduit;
+import org.apache.cxf.ws.addressing.EndpointReferenceUtils;
+import org.apache.microwave.tomcat.InProcessResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import static java.util.Collections.singletonList;
+
+// a CXF endpoint published on a microwave://<name>/<path> address: InProcessConduit calls it directly (no servlet
+// pipeline), it is the only way to reach it. Synchronous, the response is what the endpoint wrote in its back channel.
+public class InProcessDestination extends AbstractDestination {
+    private static final Logger LOGGER = Logger.getLogger(InProcessDestination.class.getName());
+    private static final String BODY = InProcessDestination.class.getName() + ".body";
+    private static final String RESPONSE = InProcessDestination.class.getName() + ".response";
+
+    public InProcessDestination(final Bus bus, final EndpointInfo endpointInfo) {
+        super(bus, EndpointReferenceUtils.getEndpointReference(endpointInfo.getAddress()), endpointInfo);
+    }
+
+    public String getPublishedAddress() {
+        return endpointInfo.getAddress();
+    }
+
+    // address is the full microwave:// address of the request, including the query string
+    InProcessResponse invoke(final String method, final String address, final Map<String, List<String>> headers, final byte[] body) {
+        final String withoutPrefix = address.substring(InProcessTransportFactory.PREFIX.length());
+        final int slash = withoutPrefix.indexOf('/');
+        final String uri = slash < 0 ? "/" : withoutPrefix.substring(slash);
+        final int query = uri.indexOf('?');
+
+        final Message request = new MessageImpl();
+        final Exchange exchange = new ExchangeImpl();
+        exchange.setInMessage(request);
+        exchange.setDestination(this);
+        request.setExchange(exchange);
+        request.put(Message.HTTP_REQUEST_METHOD, method);
+        request.put(Message.REQUEST_URI, query < 0 ? uri : uri.substring(0, query));
+        if (query >= 0) {
+            request.put(Message.QUERY_STRING, uri.substring(query + 1));
+        }
+        request.put(Message.PROTOCOL_HEADERS, headers);
+        final List<String> contentType = headers.get("Content-Type");
+        if (contentType != null && !contentType.isEmpty()) {
+            request.put(Message.CONTENT_TYPE, contentType.get(0));
+        }
+        final List<String> accept = headers.get("Accept");
+        if (accept != null && !accept.isEmpty()) {
+            request.put(Message.ACCEPT_CONTENT_TYPE, String.join(",", accept));
+        }
+        request.setContent(InputStream.class, new ByteArrayInputStream(body == null ? new byte[0] : body));
+
+        getMessageObserver().onMessage(request);
+
+        final InProcessResponse response = InProcessResponse.class.cast(exchange.get(RESPONSE));
+        return response == null ? new InProcessResponse(202, new TreeMap<>(String.CASE_INSENSITIVE_ORDER), new byte[0]) : response;
+    }
+
+    @Override
+    protected void activate() {
+        InProcessTransportFactory.publish(this);
+    }
+
+    @Override
+    protected void deactivate() {
+        InProcessTransportFactory.unpublish(this);
+    }
+
+    @Override
+    protected Conduit getInbuiltBackChannel(final Message inMessage) {
+        return new BackChannel();
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+
+    private class BackChannel extends AbstractBackChannelConduit {
+        @Override
+        public void prepare(final Message message) {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            message.put(BODY, body);
+            message.setContent(OutputStream.class, body);
+        }
+
+        @Override
+        public void close(final Message message) throws IOException {
+            super.close(message);
+            final ByteArrayOutputStream body = ByteArrayOutputStream.class.cast(message.remove(BODY));
+            if (body == null) {
+                return;
+            }
+
+            final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            final Map<String, List<Object>> protocolHeaders = CastUtils.cast(Map.class.cast(message.get(Message.PROTOCOL_HEADERS)));
+            if (protocolHeaders != null) {
+                protocolHeaders.forEach((name, values) -> {
+                    final List<String> strings = new ArrayList<>(values.size());
+                    values.forEach(v -> strings.add(String.valueOf(v)));
+                    headers.put(name, strings);
+                });
+            }
+            final Object contentType = message.get(Message.CONTENT_TYPE);
+            if (contentType != null && !headers.containsKey("Content-Type")) {
+                headers.put("Content-Type", singletonList(contentType.toString()));
+            }
+            final Integer status = Integer.class.cast(message.get(Message.RESPONSE_CODE));
+            message.getExchange().put(RESPONSE, new InProcessResponse(status == null ? 200 : status, headers, body.toByteArray()));
+        }
+    }
+}
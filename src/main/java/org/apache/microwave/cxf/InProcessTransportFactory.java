@@ -0,0 +1,105 @@
+package org.apache.microwave.cxf;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.AbstractTransportFactory;
+import org.apache.cxf.transport.Conduit;
+import org.apache.cxf.transport.ConduitInitiator;
+import org.apache.cxf.transport.Destination;
+import org.apache.cxf.transport.DestinationFactory;
+import org.apache.cxf.ws.addressing.EndpointReferenceType;
+import org.apache.microwave.tomcat.InProcessInvoker;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+
+// transport for microwave://microwave-<n>/<path> addresses (see Microwave#getInProcessAddress()),
+// requests go through the servlet pipeline of the registered instance without any socket.
+// CXF endpoints can also be published on microwave://<name>/<path>, they are then called directly (InProcessDestination).
+// JAX-RS clients select their transport from destination factories so both sides are needed anyway.
+public class InProcessTransportFactory extends AbstractTransportFactory implements ConduitInitiator, DestinationFactory {
+    public static final String TRANSPORT_ID = "http://microwave.apache.org/transports/in-process";
+    public static final String PREFIX = "microwave://";
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+    private static final Map<String, InProcessInvoker> INVOKERS = new ConcurrentHashMap<>();
+    private static final Map<String, InProcessDestination> DESTINATIONS = new ConcurrentHashMap<>();
+
+    public InProcessTransportFactory() {
+        super(singletonList(TRANSPORT_ID));
+    }
+
+    // the authority is unique per registration: several instances can share a host and port (deferred or unbound connectors)
+    public static String register(final InProcessInvoker invoker) {
+        final String authority = "microwave-" + IDS.incrementAndGet();
+        INVOKERS.put(authority, invoker);
+        return PREFIX + authority;
+    }
+
+    public static void unregister(final String address, final InProcessInvoker invoker) {
+        INVOKERS.remove(address.substring(PREFIX.length()), invoker);
+    }
+
+    static InProcessInvoker find(final String authority) {
+        final InProcessInvoker invoker = INVOKERS.get(authority);
+        if (invoker == null) {
+            throw new IllegalArgumentException("No Microwave instance for " + PREFIX + authority);
+        }
+        return invoker;
+    }
+
+    static void publish(final InProcessDestination destination) {
+        final String address = normalize(destination.getPublishedAddress());
+        if (DESTINATIONS.putIfAbsent(address, destination) != null) {
+            throw new IllegalStateException(address + " is already published");
+        }
+    }
+
+    static void unpublish(final InProcessDestination destination) {
+        DESTINATIONS.remove(normalize(destination.getPublishedAddress()), destination);
+    }
+
+    // the endpoint with the longest address prefixing the request address, null if none
+    static InProcessDestination findDestination(final String address) {
+        InProcessDestination found = null;
+        int length = -1;
+        for (final Map.Entry<String, InProcessDestination> entry : DESTINATIONS.entrySet()) {
+            final String key = entry.getKey();
+            if (key.length() > length && address.startsWith(key) && (address.length() == key.length()
+                    || address.charAt(key.length()) == '/' || address.charAt(key.length()) == '?')) {
+                found = entry.getValue();
+                length = key.length();
+            }
+        }
+        return found;
+    }
+
+    private static String normalize(final String address) {
+        return address.endsWith("/") ? address.substring(0, address.length() - 1) : address;
+    }
+
+    @Override
+    public Set<String> getUriPrefixes() {
+        return singleton(PREFIX);
+    }
+
+    @Override
+    public Conduit getConduit(final EndpointInfo endpointInfo, final Bus bus) {
+        return getConduit(endpointInfo, endpointInfo.getTarget(), bus);
+    }
+
+    @Override
+    public Conduit getConduit(final EndpointInfo endpointInfo, final EndpointReferenceType target, final Bus bus) {
+        return new InProcessConduit(target);
+    }
+
+    @Override
+    public Destination getDestination(final EndpointInfo endpointInfo, final Bus bus) {
+        return new InProcessDestination(bus, endpointInfo);
+    }
+}
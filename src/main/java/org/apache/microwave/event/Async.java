@@ -0,0 +1,17 @@
+package org.apache.microwave.event;
+
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+// marks an observer method delivered by the AsyncEventBus instead of the firing thread:
+// void audit(@Observes final AuditEvent event) becomes fire and forget, see AsyncEventExtension for the constraints.
+@InterceptorBinding
+@Target({METHOD, TYPE}) // TYPE is only there for the interceptor, see AsyncEventExtension
+@Retention(RUNTIME)
+public @interface Async {
+}
@@ -0,0 +1,175 @@
+package org.apache.microwave.event;
+
+import org.apache.webbeans.spi.ContextsService;
+import org.apache.webbeans.web.context.ServletRequestContext;
+import org.apache.webbeans.web.context.WebContextsService;
+
+import javax.enterprise.context.RequestScoped;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// delivers @Async observers on a fixed set of workers fed by a bounded queue. A worker takes up to batchSize deliveries
+// at once to not pay a queue handoff per event under load. Each delivery runs in its own request context with the
+// AsyncEventContext of the firing request. When the queue is full (or the bus closed) the firing thread delivers the
+// event itself: it slows producers down instead of losing events.
+public class AsyncEventBus implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(AsyncEventBus.class.getName());
+
+    private final ContextsService contexts;
+    private final int batchSize;
+    private final BlockingQueue<Delivery> queue;
+    private final ExecutorService workers;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final ReadWriteLock state = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    // contexts can be null to deliver without request context (nor AsyncEventContext data)
+    public AsyncEventBus(final ContextsService contexts, final ClassLoader loader, final int threads, final int queueSize, final int batchSize) {
+        this.contexts = contexts;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+
+        final AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "microwave-async-events-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(loader);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    public void dispatch(final Callable<?> observer) {
+        final Delivery delivery = new Delivery(observer, capture());
+        final boolean queued;
+        final Lock lock = state.readLock(); // close() can't stop the workers between the running check and the offer
+        lock.lock();
+        try {
+            queued = running && queue.offer(delivery);
+        } finally {
+            lock.unlock();
+        }
+        if (!queued) {
+            callerRuns.increment();
+            deliver(delivery, false);
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getCallerRuns() {
+        return callerRuns.sum();
+    }
+
+    // stops accepting events and waits up to timeout ms for the queued ones
+    public void close(final long timeout) {
+        final Lock lock = state.writeLock();
+        lock.lock();
+        try {
+            running = false; // from now on the queue only shrinks, workers exit once it is empty
+        } finally {
+            lock.unlock();
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                LOGGER.warning("Async events still queued after " + timeout + "ms: " + queue.size() + " (dropped)");
+                workers.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        close(30000);
+    }
+
+    private void work() {
+        final List<Delivery> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                final Delivery first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            for (final Delivery delivery : batch) {
+                deliver(delivery, true);
+            }
+            batch.clear();
+        }
+    }
+
+    private void deliver(final Delivery delivery, final boolean requestContext) {
+        final AsyncEventContext old = AsyncEventContext.enter(delivery.context);
+        final boolean startContext = requestContext && contexts != null;
+        if (startContext) {
+            contexts.startContext(RequestScoped.class, null);
+        }
+        try {
+            delivery.observer.call();
+            delivered.increment();
+        } catch (final Exception e) {
+            failed.increment();
+            LOGGER.log(Level.SEVERE, "Async observer failed", e);
+        } finally {
+            if (startContext) {
+                contexts.endContext(RequestScoped.class, null);
+            }
+            AsyncEventContext.exit(old);
+        }
+    }
+
+    private AsyncEventContext capture() {
+        if (!WebContextsService.class.isInstance(contexts)) {
+            return AsyncEventContext.capture(null);
+        }
+        final ServletRequestContext context = WebContextsService.class.cast(contexts).getRequestContext(false);
+        return AsyncEventContext.capture(context == null ? null : context.getServletRequest());
+    }
+
+    private static final class Delivery {
+        private final Callable<?> observer;
+        private final AsyncEventContext context;
+
+        private Delivery(final Callable<?> observer, final AsyncEventContext context) {
+            this.observer = observer;
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.apache.microwave.event;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.Principal;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableMap;
+
+// what an @Async observer sees of the request which fired the event: the servlet request is recycled once the response
+// is sent so its data is copied when the event is fired (container attributes, javax.* and org.apache.*, are skipped)
+public final class AsyncEventContext {
+    private static final ThreadLocal<AsyncEventContext> CURRENT = new ThreadLocal<>();
+    private static final AsyncEventContext NONE = new AsyncEventContext(null, null, null, emptyMap());
+
+    private final String method;
+    private final String requestUri;
+    private final Principal userPrincipal;
+    private final Map<String, Object> attributes;
+
+    private AsyncEventContext(final String method, final String requestUri, final Principal userPrincipal,
+                              final Map<String, Object> attributes) {
+        this.method = method;
+        this.requestUri = requestUri;
+        this.userPrincipal = userPrincipal;
+        this.attributes = attributes;
+    }
+
+    // the context of the event being delivered, empty when the event was not fired in a request, null outside async observers
+    public static AsyncEventContext current() {
+        return CURRENT.get();
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getRequestUri() {
+        return requestUri;
+    }
+
+    public Principal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    public Object getAttribute(final String name) {
+        return attributes.get(name);
+    }
+
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    static AsyncEventContext capture(final HttpServletRequest request) {
+        if (request == null) {
+            return NONE;
+        }
+        final Map<String, Object> attributes = new HashMap<>();
+        final Enumeration<String> names = request.getAttributeNames();
+        while (names.hasMoreElements()) {
+            final String name = names.nextElement();
+            if (!name.startsWith("javax.") && !name.startsWith("org.apache.")) {
+                attributes.put(name, request.getAttribute(name));
+            }
+        }
+        return new AsyncEventContext(request.getMethod(), request.getRequestURI(), request.getUserPrincipal(),
+                attributes.isEmpty() ? emptyMap() : unmodifiableMap(attributes));
+    }
+
+    static AsyncEventContext enter(final AsyncEventContext context) {
+        final AsyncEventContext old = CURRENT.get();
+        CURRENT.set(context);
+        return old;
+    }
+
+    static void exit(final AsyncEventContext old) {
+        if (old == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(old);
+        }
+    }
+}
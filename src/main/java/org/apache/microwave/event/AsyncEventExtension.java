@@ -0,0 +1,114 @@
+package org.apache.microwave.event;
+
+import org.apache.webbeans.config.WebBeansContext;
+
+import javax.enterprise.context.ConversationScoped;
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.SessionScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.enterprise.inject.spi.AnnotatedType;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeShutdown;
+import javax.enterprise.inject.spi.Extension;
+import javax.enterprise.inject.spi.ProcessAnnotatedType;
+import javax.enterprise.inject.spi.ProcessManagedBean;
+import javax.enterprise.inject.spi.WithAnnotations;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// validates @Async observers and owns the AsyncEventBus of the application, started by OWBAutoSetup once CDI is up
+// (only if there are @Async observers) and drained when the container shuts down.
+// @Async methods must be business methods (not static) with an @Observes parameter, on beans living longer than
+// the firing request since the delivery happens after it: no request, session or conversation scoped bean.
+// Pseudo scoped beans (@Dependent) are destroyed once the observer returns so the delivery uses its own instance.
+public class AsyncEventExtension implements Extension {
+    private final Collection<AnnotatedMethod<?>> observers = new ArrayList<>();
+    private final Map<Method, Bean<?>> pseudoScoped = new HashMap<>();
+    private final Collection<String> errors = new ArrayList<>();
+    private volatile AsyncEventBus bus;
+    private BeanManager beanManager;
+    private long drainTimeout;
+
+    void collect(@Observes @WithAnnotations(Async.class) final ProcessAnnotatedType<?> pat) {
+        final AnnotatedType<?> type = pat.getAnnotatedType();
+        if (type.isAnnotationPresent(Async.class) && type.getJavaClass() != AsyncObserverInterceptor.class) {
+            errors.add(type.getJavaClass() + " is @Async, only observer methods can be");
+        }
+        for (final AnnotatedMethod<?> method : type.getMethods()) {
+            if (!method.isAnnotationPresent(Async.class)) {
+                continue;
+            }
+            if (method.isStatic() || method.getParameters().stream().noneMatch(p -> p.isAnnotationPresent(Observes.class))) {
+                errors.add(method.getJavaMember() + " is @Async but not an observer method");
+            } else {
+                observers.add(method);
+            }
+        }
+    }
+
+    void scopes(@Observes final ProcessManagedBean<?> pmb, final BeanManager beanManager) { // the scope can come from a stereotype
+        this.beanManager = beanManager;
+        final Bean<?> bean = pmb.getBean();
+        final Class<? extends Annotation> scope = bean.getScope();
+        for (final AnnotatedMethod<?> method : pmb.getAnnotatedBeanClass().getMethods()) {
+            if (!method.isAnnotationPresent(Async.class) || method.isStatic()) {
+                continue;
+            }
+            if (scope == RequestScoped.class || scope == SessionScoped.class || scope == ConversationScoped.class) {
+                pmb.addDefinitionError(new IllegalArgumentException(
+                        method.getJavaMember() + " is @Async but its bean can be destroyed before the delivery"));
+            } else if (!beanManager.isNormalScope(scope)) {
+                pseudoScoped.put(method.getJavaMember(), bean);
+            }
+        }
+    }
+
+    void validate(@Observes final AfterBeanDiscovery abd) {
+        for (final String error : errors) {
+            abd.addDefinitionError(new IllegalArgumentException(error));
+        }
+    }
+
+    void shutdown(@Observes final BeforeShutdown bs) {
+        final AsyncEventBus current = bus;
+        if (current != null) {
+            bus = null; // late events are delivered synchronously
+            current.close(drainTimeout);
+        }
+    }
+
+    // threads <= 0 keeps the delivery synchronous, drainTimeout is in ms
+    public void start(final int threads, final int queueSize, final int batchSize, final long drainTimeout) {
+        if (observers.isEmpty() || threads <= 0) {
+            return;
+        }
+        this.drainTimeout = drainTimeout;
+        this.bus = new AsyncEventBus(
+                WebBeansContext.currentInstance().getContextsService(), Thread.currentThread().getContextClassLoader(),
+                threads, queueSize, batchSize);
+    }
+
+    // null for normal scoped beans, the instance which was notified can be used by the bus
+    Bean<?> findPseudoScopedBean(final Method method) {
+        return pseudoScoped.get(method);
+    }
+
+    BeanManager getBeanManager() {
+        return beanManager;
+    }
+
+    public AsyncEventBus getBus() {
+        return bus;
+    }
+
+    public Collection<AnnotatedMethod<?>> getObservers() {
+        return observers;
+    }
+}
@@ -0,0 +1,67 @@
+package org.apache.microwave.event;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// first interceptor of @Async observers: the rest of the chain and the observer run on the bus,
+// before the bus is started (events fired during the CDI boot) or without a bus they stay synchronous.
+// A @Dependent observer instance is destroyed as soon as this interceptor returns so the bus notifies a new one.
+@Async
+@Interceptor
+@Priority(Interceptor.Priority.PLATFORM_BEFORE)
+public class AsyncObserverInterceptor implements Serializable {
+    private static final ThreadLocal<Boolean> DELIVERING = new ThreadLocal<>();
+
+    @Inject
+    private AsyncEventExtension extension;
+
+    @AroundInvoke
+    public Object dispatch(final InvocationContext context) throws Exception {
+        if (DELIVERING.get() != null) { // the bus calls a new instance, only for this invocation (not nested events)
+            DELIVERING.remove();
+            return context.proceed();
+        }
+        final AsyncEventBus bus = extension.getBus();
+        if (bus == null) {
+            return context.proceed();
+        }
+        final Bean<?> pseudoScoped = extension.findPseudoScopedBean(context.getMethod());
+        if (pseudoScoped == null) {
+            bus.dispatch(context::proceed);
+        } else {
+            final BeanManager beanManager = extension.getBeanManager();
+            final Method method = context.getMethod();
+            final Object[] parameters = context.getParameters();
+            bus.dispatch(() -> notifyNewInstance(beanManager, pseudoScoped, method, parameters));
+        }
+        return null; // observers are void
+    }
+
+    private static Object notifyNewInstance(final BeanManager beanManager, final Bean<?> bean, final Method method,
+                                            final Object[] parameters) throws Exception {
+        final CreationalContext<?> creationalContext = beanManager.createCreationalContext(bean);
+        try {
+            final Object instance = beanManager.getReference(bean, Object.class, creationalContext);
+            if (!method.isAccessible()) {
+                method.setAccessible(true);
+            }
+            DELIVERING.set(true);
+            return method.invoke(instance, parameters);
+        } catch (final InvocationTargetException ite) {
+            final Throwable cause = ite.getCause();
+            throw Exception.class.isInstance(cause) ? Exception.class.cast(cause) : new IllegalStateException(cause);
+        } finally {
+            DELIVERING.remove();
+            creationalContext.release();
+        }
+    }
+}
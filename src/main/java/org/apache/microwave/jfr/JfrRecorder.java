@@ -0,0 +1,133 @@
+package org.apache.microwave.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// only loaded by MicrowaveEvents when jdk.jfr is there, new Xxx().isEnabled() is what JFR expects before filling events
+class JfrRecorder implements MicrowaveEvents.Recorder {
+    @Override
+    public MicrowaveEvents.Span request(final String method, final String path) {
+        final RequestEvent event = new RequestEvent();
+        if (!event.isEnabled()) {
+            return MicrowaveEvents.Span.NOOP;
+        }
+        event.method = method;
+        event.path = path;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public MicrowaveEvents.Span deployment(final String context) {
+        final DeploymentEvent event = new DeploymentEvent();
+        if (!event.isEnabled()) {
+            return MicrowaveEvents.Span.NOOP;
+        }
+        event.context = context;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public MicrowaveEvents.Span cdiBoot(final String context) {
+        final CdiBootEvent event = new CdiBootEvent();
+        if (!event.isEnabled()) {
+            return MicrowaveEvents.Span.NOOP;
+        }
+        event.context = context;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public MicrowaveEvents.Span busLoad(final String context) {
+        final BusLoadEvent event = new BusLoadEvent();
+        if (!event.isEnabled()) {
+            return MicrowaveEvents.Span.NOOP;
+        }
+        event.context = context;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public MicrowaveEvents.Span connector(final String action, final String scheme, final int port) {
+        final ConnectorEvent event = new ConnectorEvent();
+        if (!event.isEnabled()) {
+            return MicrowaveEvents.Span.NOOP;
+        }
+        event.action = action;
+        event.scheme = scheme;
+        event.port = port;
+        event.begin();
+        return event;
+    }
+
+    private abstract static class SpanEvent extends Event implements MicrowaveEvents.Span {
+        @Override
+        public void close() {
+            commit();
+        }
+    }
+
+    @Name("org.apache.microwave.Request")
+    @Label("HTTP Request")
+    @Category({"Microwave", "HTTP"})
+    private static class RequestEvent extends SpanEvent {
+        @Label("Method")
+        private String method;
+
+        @Label("Path")
+        private String path;
+
+        @Label("Status")
+        private int status;
+
+        @Override
+        public void status(final int status) {
+            this.status = status;
+        }
+    }
+
+    @Name("org.apache.microwave.Deployment")
+    @Label("Webapp Deployment")
+    @Description("Context startup, includes CDI boot and CXF bus loading when not lazy")
+    @Category({"Microwave", "Lifecycle"})
+    private static class DeploymentEvent extends SpanEvent {
+        @Label("Context")
+        private String context;
+    }
+
+    @Name("org.apache.microwave.CdiBoot")
+    @Label("CDI Boot")
+    @Category({"Microwave", "Lifecycle"})
+    private static class CdiBootEvent extends SpanEvent {
+        @Label("Context")
+        private String context;
+    }
+
+    @Name("org.apache.microwave.BusLoad")
+    @Label("CXF Bus Loading")
+    @Category({"Microwave", "Lifecycle"})
+    private static class BusLoadEvent extends SpanEvent {
+        @Label("Context")
+        private String context;
+    }
+
+    @Name("org.apache.microwave.Connector")
+    @Label("Connector Pause/Resume")
+    @Category({"Microwave", "Lifecycle"})
+    private static class ConnectorEvent extends SpanEvent {
+        @Label("Action")
+        private String action;
+
+        @Label("Scheme")
+        private String scheme;
+
+        @Label("Port")
+        private int port;
+    }
+}
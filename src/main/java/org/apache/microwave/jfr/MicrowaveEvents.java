@@ -0,0 +1,94 @@
+package org.apache.microwave.jfr;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// JFR events of Microwave (category "Microwave" in JMC): requests, webapp deployments, CDI boot, CXF bus loading
+// and connector pause/resume. jdk.jfr is only loaded when the JVM has it (java 11, 8u262) so other JVMs get no-op spans,
+// and when the event type is disabled in the recording (or nothing records) the span is a shared no-op instance.
+public final class MicrowaveEvents {
+    private static final Logger LOGGER = Logger.getLogger(MicrowaveEvents.class.getName());
+    private static final Recorder RECORDER = load();
+
+    private MicrowaveEvents() {
+        // no-op
+    }
+
+    public static boolean isAvailable() {
+        return RECORDER != Recorder.NOOP;
+    }
+
+    public static Span request(final String method, final String path) {
+        return RECORDER.request(method, path);
+    }
+
+    public static Span deployment(final String context) {
+        return RECORDER.deployment(context);
+    }
+
+    public static Span cdiBoot(final String context) {
+        return RECORDER.cdiBoot(context);
+    }
+
+    public static Span busLoad(final String context) {
+        return RECORDER.busLoad(context);
+    }
+
+    public static Span connector(final String action, final String scheme, final int port) {
+        return RECORDER.connector(action, scheme, port);
+    }
+
+    private static Recorder load() {
+        try {
+            final Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+            if (!Boolean.class.cast(flightRecorder.getMethod("isAvailable").invoke(null))) {
+                return Recorder.NOOP;
+            }
+            return Recorder.class.cast(Class.forName("org.apache.microwave.jfr.JfrRecorder").newInstance());
+        } catch (final ClassNotFoundException e) { // no JFR
+            return Recorder.NOOP;
+        } catch (final Exception | LinkageError e) {
+            LOGGER.log(Level.FINE, "JFR events disabled: " + e.getMessage(), e);
+            return Recorder.NOOP;
+        }
+    }
+
+    // the event is committed on close, its duration is the span lifetime
+    public interface Span extends AutoCloseable {
+        Span NOOP = () -> {
+            // no-op
+        };
+
+        default void status(final int status) {
+            // no-op
+        }
+
+        @Override
+        void close();
+    }
+
+    interface Recorder {
+        Recorder NOOP = new Recorder() {
+        };
+
+        default Span request(final String method, final String path) {
+            return Span.NOOP;
+        }
+
+        default Span deployment(final String context) {
+            return Span.NOOP;
+        }
+
+        default Span cdiBoot(final String context) {
+            return Span.NOOP;
+        }
+
+        default Span busLoad(final String context) {
+            return Span.NOOP;
+        }
+
+        default Span connector(final String action, final String scheme, final int port) {
+            return Span.NOOP;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.apache.microwave.openwebbeans;
+
+import org.apache.webbeans.config.WebBeansContext;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+// drops the metadata OWB only needs to boot: beans keep their own annotated types and injection points,
+// the annotated element and resolution caches are rebuilt on demand if something asks for them at runtime.
+public class FootprintTrimmer implements ServletContextListener {
+    // to call once the other setups registered their listeners/lazy tasks so trimming happens after them
+    public static void register(final ServletContext ctx) {
+        final LazyWebBeansListener lazy = LazyWebBeansListener.class.cast(ctx.getAttribute(LazyWebBeansListener.ATTRIBUTE));
+        if (lazy != null) {
+            lazy.onInit(FootprintTrimmer::trim);
+        } else {
+            ctx.addListener(new FootprintTrimmer());
+        }
+    }
+
+    public static void trim() {
+        final WebBeansContext context = WebBeansContext.currentInstance();
+        context.getAnnotatedElementFactory().clear();
+        context.getBeanManagerImpl().getInjectionResolver().clearCaches();
+    }
+
+    @Override
+    public void contextInitialized(final ServletContextEvent sce) {
+        trim();
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent sce) {
+        // no-op
+    }
+}
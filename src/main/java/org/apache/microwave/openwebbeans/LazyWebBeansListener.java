@@ -0,0 +1,95 @@
+package org.apache.microwave.openwebbeans;
+
+import org.apache.microwave.jfr.MicrowaveEvents;
+import org.apache.webbeans.servlet.WebBeansConfigurationListener;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletRequestEvent;
+import javax.servlet.ServletRequestListener;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// boots OWB (and what needs it, see onInit()) on the first request instead of the context startup,
+// concurrent first requests wait for the initialization. It is attempted once: if it fails, the failure is
+// rethrown for every request (500) instead of booting OWB again.
+public class LazyWebBeansListener implements ServletContextListener, ServletRequestListener, HttpSessionListener {
+    public static final String ATTRIBUTE = LazyWebBeansListener.class.getName();
+
+    private final WebBeansConfigurationListener delegate = new WebBeansConfigurationListener();
+    private final Collection<Runnable> initializers = new ArrayList<>();
+    private volatile ServletContextEvent contextEvent;
+    private volatile boolean initialized;
+    private volatile RuntimeException failure;
+
+    // tasks to run once CDI is started, in the initialization lock
+    public synchronized void onInit(final Runnable task) {
+        initializers.add(task);
+    }
+
+    public boolean isInitialized() {
+        return initialized && failure == null;
+    }
+
+    @Override
+    public void contextInitialized(final ServletContextEvent sce) {
+        contextEvent = sce;
+    }
+
+    @Override
+    public void requestInitialized(final ServletRequestEvent sre) {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    try (final MicrowaveEvents.Span ignored = MicrowaveEvents.cdiBoot(contextEvent.getServletContext().getContextPath())) {
+                        delegate.contextInitialized(contextEvent);
+                        for (final Runnable task : initializers) {
+                            task.run();
+                        }
+                    } catch (final RuntimeException e) {
+                        failure = e;
+                    } catch (final Error e) {
+                        failure = new IllegalStateException(e);
+                    } finally {
+                        initialized = true;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        delegate.requestInitialized(sre);
+    }
+
+    @Override
+    public void requestDestroyed(final ServletRequestEvent sre) {
+        if (isInitialized()) {
+            delegate.requestDestroyed(sre);
+        }
+    }
+
+    @Override
+    public void sessionCreated(final HttpSessionEvent se) {
+        if (isInitialized()) {
+            delegate.sessionCreated(se);
+        }
+    }
+
+    @Override
+    public void sessionDestroyed(final HttpSessionEvent se) {
+        if (isInitialized()) {
+            delegate.sessionDestroyed(se);
+        }
+    }
+
+    @Override
+    public synchronized void contextDestroyed(final ServletContextEvent sce) {
+        if (initialized) { // after a failure too, OWB can be partially started
+            delegate.contextDestroyed(sce);
+            initialized = false;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.apache.microwave.openwebbeans;
+
+import org.apache.microwave.war.MappedWar;
+import org.apache.microwave.war.MappedZip;
+import org.apache.webbeans.corespi.scanner.xbean.BeanArchiveFilter;
+import org.apache.webbeans.corespi.scanner.xbean.CdiArchive;
+import org.apache.webbeans.corespi.scanner.xbean.OwbAnnotationFinder;
+import org.apache.webbeans.spi.BeanArchiveService;
+import org.apache.webbeans.util.WebBeansUtil;
+import org.apache.webbeans.web.scanner.WebScannerService;
+import org.apache.xbean.finder.AnnotationFinder;
+import org.apache.xbean.finder.archive.Archive;
+import org.apache.xbean.finder.archive.CompositeArchive;
+import org.apache.xbean.finder.archive.FilteredArchive;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// xbean only knows file: and jar: archives, the mwar: ones of a MappedWar (WEB-INF/classes and WEB-INF/lib jars)
+// are scanned here straight from the mapped war, other urls go through the default CdiArchive.
+public class MicrowaveScannerService extends WebScannerService {
+    @Override
+    protected AnnotationFinder initFinder() {
+        if (finder != null) {
+            return finder;
+        }
+
+        final Map<String, URL> standard = new HashMap<>();
+        final Map<String, URL> mapped = new HashMap<>();
+        for (final Map.Entry<String, URL> url : getBeanDeploymentUrls().entrySet()) {
+            (MappedWar.PROTOCOL.equals(url.getValue().getProtocol()) ? mapped : standard).put(url.getKey(), url.getValue());
+        }
+        if (mapped.isEmpty()) {
+            return super.initFinder();
+        }
+
+        final BeanArchiveService beanArchiveService = webBeansContext.getBeanArchiveService();
+        final ClassLoader loader = WebBeansUtil.getCurrentClassLoader();
+        archive = new CdiArchive(beanArchiveService, loader, standard);
+
+        final Collection<Archive> archives = new ArrayList<>(mapped.size() + 1);
+        archives.add(archive);
+        for (final URL url : mapped.values()) {
+            final MappedWar.Location location;
+            try {
+                location = MappedWar.locate(url);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (location == null) {
+                continue; // undeployed meanwhile
+            }
+            final BeanArchiveService.BeanArchiveInformation information = beanArchiveService.getBeanArchiveInformation(url);
+            final List<String> classes = new ArrayList<>(); // filled by the filter while the finder reads the archive
+            archives.add(new FilteredArchive(new MappedZipArchive(loader, location), new BeanArchiveFilter(information, classes)));
+            archive.classesByUrl().put(url.toExternalForm(), archive.new FoundClasses(url, classes, information));
+        }
+        finder = new OwbAnnotationFinder(new CompositeArchive(archives));
+        return finder;
+    }
+
+    private static class MappedZipArchive implements Archive {
+        private final ClassLoader loader;
+        private final MappedZip zip;
+        private final String prefix;
+
+        private MappedZipArchive(final ClassLoader loader, final MappedWar.Location location) {
+            this.loader = loader;
+            this.zip = location.getZip();
+            this.prefix = location.getEntry().isEmpty() || location.getEntry().endsWith("/") ? location.getEntry() : location.getEntry() + '/';
+        }
+
+        @Override
+        public InputStream getBytecode(final String className) throws IOException, ClassNotFoundException {
+            final String name = className.endsWith(".class") ? className : className.replace('.', '/') + ".class";
+            final MappedZip.Entry entry = zip.getEntry(prefix + name);
+            if (entry == null) {
+                throw new FileNotFoundException(className);
+            }
+            return new ByteArrayInputStream(zip.read(entry));
+        }
+
+        @Override
+        public Class<?> loadClass(final String className) throws ClassNotFoundException {
+            return loader.loadClass(className);
+        }
+
+        @Override
+        public Iterator<Entry> iterator() {
+            final List<Entry> classes = new ArrayList<>();
+            for (final MappedZip.Entry entry : zip.getEntries()) {
+                final String name = entry.getName();
+                if (name.startsWith(prefix) && name.endsWith(".class") && !entry.isDirectory()) {
+                    final String className = name.substring(prefix.length(), name.length() - ".class".length()).replace('/', '.');
+                    classes.add(new Entry() {
+                        @Override
+                        public String getName() {
+                            return className;
+                        }
+
+                        @Override
+                        public InputStream getBytecode() throws IOException {
+                            return new ByteArrayInputStream(zip.read(entry));
+                        }
+                    });
+                }
+            }
+            return classes.iterator();
+        }
+    }
+}
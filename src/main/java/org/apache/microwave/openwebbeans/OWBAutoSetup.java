@@ -1,6 +1,9 @@
 package org.apache.microwave.openwebbeans;
 
 import org.apache.microwave.Microwave;
+import org.apache.microwave.event.AsyncEventExtension;
+import org.apache.microwave.jfr.MicrowaveEvents;
+import org.apache.webbeans.config.WebBeansContext;
 import org.apache.webbeans.servlet.WebBeansConfigurationListener;
 import org.apache.webbeans.web.context.WebConversationFilter;
 
@@ -8,6 +11,7 @@ import javax.servlet.DispatcherType;
 import javax.servlet.FilterRegistration;
 import javax.servlet.ServletContainerInitializer;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletException;
 import java.util.EnumSet;
 import java.util.Set;
@@ -20,6 +24,23 @@ public class OWBAutoSetup implements ServletContainerInitializer {
             final FilterRegistration.Dynamic filter = ctx.addFilter("owb-conversation", WebConversationFilter.class);
             filter.addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), false, "/*");
         }
-        ctx.addListener(WebBeansConfigurationListener.class);
+        final Runnable asyncEvents = () -> WebBeansContext.currentInstance().getBeanManagerImpl().getExtension(AsyncEventExtension.class)
+                .start(builder.minimalFootprint() ? 0 : builder.asyncEventThreads(), builder.asyncEventQueueSize(), builder.asyncEventBatchSize(), builder.undeployTimeout());
+        if (builder.lazyInit()) {
+            final LazyWebBeansListener listener = new LazyWebBeansListener();
+            listener.onInit(asyncEvents);
+            ctx.setAttribute(LazyWebBeansListener.ATTRIBUTE, listener);
+            ctx.addListener(listener);
+        } else {
+            ctx.addListener(new WebBeansConfigurationListener() {
+                @Override
+                public void contextInitialized(final ServletContextEvent event) {
+                    try (final MicrowaveEvents.Span ignored = MicrowaveEvents.cdiBoot(event.getServletContext().getContextPath())) {
+                        super.contextInitialized(event);
+                    }
+                    asyncEvents.run();
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,158 @@
+package org.apache.microwave.runner;
+
+import org.apache.microwave.Microwave;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.util.Arrays.asList;
+
+// class data sharing training: java -jar microwave.jar --cds-archive=app.jsa [--cds-warmup=/api/a,/api/b] [options]
+// 1. a training run (boot, deploy, warmup requests, stop) records the loaded classes (-XX:DumpLoadedClassList),
+// 2. the archive is dumped from this list (-Xshare:dump),
+// 3. startup with and without the archive is measured (cds-benchmark runs each, 0 to skip).
+// classes are loaded from the system classpath (not the IndexedClassLoader) since only these ones can be archived.
+// note: java 8 only archives JDK classes, application classes need java 10+.
+public final class CdsTraining {
+    private static final Logger LOGGER = Logger.getLogger(CdsTraining.class.getName());
+
+    static final String ARCHIVE = "cds-archive";
+    static final String RUN = "cds-run";
+    private static final String WARMUP = "cds-warmup";
+    private static final String WARMUP_ITERATIONS = "cds-warmup-iterations";
+    private static final String BENCHMARK = "cds-benchmark";
+
+    private CdsTraining() {
+        // no-op
+    }
+
+    public static void train(final String[] args) throws IOException, InterruptedException {
+        final Properties options = Cli.toProperties(args);
+        final File archive = new File(options.getProperty(ARCHIVE)).getAbsoluteFile();
+        final File classList = new File(archive.getParentFile(), archive.getName() + ".classlist");
+        if (!archive.getParentFile().exists() && !archive.getParentFile().mkdirs()) {
+            throw new IllegalStateException("Can't create " + archive.getParentFile());
+        }
+
+        final List<String> appArgs = trainingArgs(options);
+        exec(asList("-XX:DumpLoadedClassList=" + classList.getAbsolutePath()), appArgs);
+        exec(asList("-Xshare:dump", "-XX:SharedClassListFile=" + classList.getAbsolutePath(),
+                "-XX:SharedArchiveFile=" + archive.getAbsolutePath()), null);
+        LOGGER.info("Created " + archive + ", launch with:\n  java " + String.join(" ", vmFlags())
+                + " -XX:SharedArchiveFile=" + archive.getAbsolutePath() + " -Dmicrowave.lib= -cp " + classpath() + " " + Cli.class.getName());
+
+        final int runs = Integer.parseInt(options.getProperty(BENCHMARK, "3"));
+        if (runs > 0) {
+            final long without = benchmark(runs, asList("-Xshare:auto"), appArgs);
+            final long with = benchmark(runs, asList("-Xshare:auto", "-XX:SharedArchiveFile=" + archive.getAbsolutePath()), appArgs);
+            LOGGER.info("Average training run (boot + warmup + stop) over " + runs + " runs: " + without + "ms without the archive, "
+                    + with + "ms with the archive");
+        }
+    }
+
+    // options of the forked training run: the parsed options without the training ones (whatever their --key value or
+    // --key=value form), rewritten as --key=value
+    static List<String> trainingArgs(final Properties options) {
+        final List<String> appArgs = new ArrayList<>();
+        for (final String key : new TreeSet<>(options.stringPropertyNames())) {
+            if (!ARCHIVE.equals(key) && !BENCHMARK.equals(key)) {
+                appArgs.add("--" + key + '=' + options.getProperty(key));
+            }
+        }
+        appArgs.add("--" + RUN);
+        return appArgs;
+    }
+
+    // the training run itself, executed in the forked JVM
+    public static void run(final Microwave microwave, final Properties options) {
+        final int iterations = Integer.parseInt(options.getProperty(WARMUP_ITERATIONS, "10"));
+        final String base = "http://localhost:" + microwave.getConfiguration().httpPort();
+        for (int i = 0; i < iterations; i++) {
+            for (final String path : options.getProperty(WARMUP, "/").split(" *, *")) {
+                try {
+                    final HttpURLConnection connection = HttpURLConnection.class.cast(new URL(base + path).openConnection());
+                    try (final InputStream stream = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                        if (stream != null) {
+                            final byte[] buffer = new byte[8192];
+                            while (stream.read(buffer) >= 0) {
+                                // consume
+                            }
+                        }
+                    }
+                } catch (final IOException e) { // we only want to load classes
+                    // no-op
+                }
+            }
+        }
+        microwave.close();
+    }
+
+    private static long benchmark(final int runs, final Collection<String> flags, final List<String> appArgs) throws IOException, InterruptedException {
+        long total = 0;
+        for (int i = 0; i < runs; i++) {
+            final long start = System.nanoTime();
+            exec(flags, appArgs);
+            total += System.nanoTime() - start;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(total / runs);
+    }
+
+    private static void exec(final Collection<String> flags, final List<String> appArgs) throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.addAll(vmFlags());
+        command.addAll(flags);
+        command.add("-Dmicrowave.lib=");
+        command.add("-cp");
+        command.add(classpath());
+        if (appArgs != null) {
+            command.add(Cli.class.getName());
+            command.addAll(appArgs);
+        } else {
+            command.add("-version");
+        }
+        final int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException("Command failed (" + exit + "): " + String.join(" ", command));
+        }
+    }
+
+    private static Collection<String> vmFlags() {
+        final String version = System.getProperty("java.specification.version");
+        if ("1.8".equals(version)) {
+            return asList("-XX:+UnlockDiagnosticVMOptions");
+        }
+        if ("9".equals(version) || "10".equals(version)) {
+            return asList("-XX:+UseAppCDS");
+        }
+        return new ArrayList<>();
+    }
+
+    private static String classpath() { // CDS needs the same jar list at dump and runtime
+        final File lib = Cli.findLib();
+        final File self = Cli.self();
+        if (lib == null || self == null) {
+            return System.getProperty("java.class.path");
+        }
+        final File[] jars = lib.listFiles((dir, name) -> name.endsWith(".jar"));
+        final StringBuilder classpath = new StringBuilder(self.getAbsolutePath());
+        if (jars != null) {
+            Arrays.sort(jars);
+            for (final File jar : jars) {
+                classpath.append(File.pathSeparatorChar).append(jar.getAbsolutePath());
+            }
+        }
+        return classpath.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package org.apache.microwave.runner;
+
+import org.apache.microwave.Microwave;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+// java -jar microwave.jar --http=8081 --webapp=/path/to/app.war --properties.foo=bar
+// options are the Builder ones (same keys as microwave.properties) plus:
+// - config: a properties file loaded before the other options
+// - webapp/context: deploy a war or exploded webapp instead of the classpath
+// - cds-archive: class data sharing training, see CdsTraining
+// when a lib/ directory is next to the jar (or -Dmicrowave.lib, empty to disable) the server runs in an IndexedClassLoader
+// built from lib/INDEX.LIST (see the runner profile of the pom).
+public final class Cli {
+    private Cli() {
+        // no-op
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (toProperties(args).containsKey(CdsTraining.ARCHIVE)) {
+            CdsTraining.train(args);
+            return;
+        }
+
+        final File lib = findLib();
+        if (lib == null) {
+            run(args);
+            return;
+        }
+
+        final File self = self();
+        final Thread thread = Thread.currentThread();
+        final ClassLoader old = thread.getContextClassLoader();
+        try (final IndexedClassLoader loader = IndexedClassLoader.create(lib,
+                self != null && self.isFile() ? singletonList(self) : emptyList(),
+                ClassLoader.getSystemClassLoader().getParent())) {
+            thread.setContextClassLoader(loader);
+            loader.loadClass(Cli.class.getName()).getMethod("run", String[].class).invoke(null, (Object) args);
+        } catch (final InvocationTargetException ite) {
+            final Throwable cause = ite.getCause();
+            throw Exception.class.isInstance(cause) ? Exception.class.cast(cause) : new IllegalStateException(cause);
+        } finally {
+            thread.setContextClassLoader(old);
+        }
+    }
+
+    // blocks until the JVM is stopped
+    public static void run(final String[] args) throws InterruptedException {
+        if (toProperties(args).containsKey(CdsTraining.RUN)) {
+            CdsTraining.run(create(args), toProperties(args));
+            return;
+        }
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final Microwave microwave = create(args);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                microwave.close();
+            } finally {
+                stopped.countDown();
+            }
+        }, "microwave-shutdown"));
+        stopped.await();
+    }
+
+    public static Microwave create(final String[] args) {
+        final Properties configuration = toProperties(args);
+        final Properties options = extractCliOptions(configuration);
+        final Microwave.Builder builder = new Microwave.Builder();
+        final String config = options.getProperty("config");
+        if (config != null) {
+            builder.loadFrom(config);
+        }
+        builder.loadFromProperties(configuration);
+
+        final String webapp = options.getProperty("webapp");
+        if (webapp == null) {
+            return new Microwave(builder).bake();
+        }
+        return new Microwave(builder).start().deployWebapp(options.getProperty("context", ""), new File(webapp));
+    }
+
+    // moves the options which are not Builder ones out of the configuration to not get them reported as unknown keys
+    private static Properties extractCliOptions(final Properties configuration) {
+        final Properties options = new Properties();
+        for (final String key : configuration.stringPropertyNames()) {
+            if (key.equals("config") || key.equals("webapp") || key.equals("context") || key.startsWith("cds-")) {
+                options.setProperty(key, String.class.cast(configuration.remove(key)));
+            }
+        }
+        return options;
+    }
+
+    public static Properties toProperties(final String[] args) {
+        final Properties properties = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (!arg.startsWith("--") || arg.length() == 2) {
+                throw new IllegalArgumentException("Unexpected argument '" + arg + "', use --<option>[=<value>]");
+            }
+            final String option = arg.substring(2);
+            final int equals = option.indexOf('=');
+            if (equals > 0) {
+                properties.setProperty(option.substring(0, equals), option.substring(equals + 1));
+            } else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                properties.setProperty(option, args[++i]);
+            } else { // flag
+                properties.setProperty(option, "true");
+            }
+        }
+        return properties;
+    }
+
+    static File findLib() {
+        if (IndexedClassLoader.class.isInstance(Cli.class.getClassLoader())) {
+            return null;
+        }
+        final String configured = System.getProperty("microwave.lib");
+        if (configured != null) {
+            return configured.isEmpty() ? null : new File(configured);
+        }
+        final File self = self();
+        if (self == null || !self.isFile()) { // exploded/IDE execution, the classpath is already set up
+            return null;
+        }
+        final File lib = new File(self.getParentFile(), "lib");
+        return lib.isDirectory() ? lib : null;
+    }
+
+    static File self() {
+        final CodeSource codeSource = Cli.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return null;
+        }
+        try {
+            return new File(codeSource.getLocation().toURI());
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
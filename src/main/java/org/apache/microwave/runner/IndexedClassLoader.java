@@ -0,0 +1,334 @@
+package org.apache.microwave.runner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.enumeration;
+
+// classloader over a set of jars with a directory -> jars index (JarIndex format, see writeIndex()),
+// lookups only open the jars owning the directory and misses are answered without touching any jar
+// which is what OWB and CXF mainly do at startup.
+public class IndexedClassLoader extends URLClassLoader {
+    public static final String INDEX = "INDEX.LIST";
+    private static final String HEADER = "JarIndex-Version: 1.0";
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Map<String, List<Jar>> index = new HashMap<>();
+    private final Collection<Jar> jars;
+
+    public IndexedClassLoader(final Map<File, Collection<String>> directories, final ClassLoader parent) {
+        super(toUrls(directories.keySet()), parent);
+        this.jars = new ArrayList<>(directories.size());
+        for (final Map.Entry<File, Collection<String>> entry : directories.entrySet()) {
+            final Jar jar = new Jar(entry.getKey());
+            jars.add(jar);
+            for (final String directory : entry.getValue()) {
+                index.computeIfAbsent(directory, k -> new ArrayList<>(1)).add(jar);
+            }
+        }
+    }
+
+    // jars are the ones of lib (+ extra ones first), lib/INDEX.LIST is reused for the jars it is up to date for
+    public static IndexedClassLoader create(final File lib, final Collection<File> extraJars, final ClassLoader parent) {
+        final Collection<File> files = new ArrayList<>(extraJars);
+        final File[] libs = lib.listFiles((dir, name) -> name.endsWith(".jar"));
+        if (libs != null) {
+            Arrays.sort(libs);
+            Collections.addAll(files, libs);
+        }
+
+        final File indexFile = new File(lib, INDEX);
+        final Map<String, Collection<String>> precomputed = indexFile.isFile() ? readIndex(indexFile) : Collections.emptyMap();
+        final Map<File, Collection<String>> directories = new LinkedHashMap<>();
+        for (final File file : files) {
+            final Collection<String> known = precomputed.get(file.getName());
+            directories.put(file, known != null && file.getParentFile().equals(lib) && file.lastModified() <= indexFile.lastModified() ?
+                    known : index(file));
+        }
+        return new IndexedClassLoader(directories, parent);
+    }
+
+    public static Collection<String> index(final File jar) {
+        final Collection<String> directories = new LinkedHashSet<>();
+        try (final JarFile file = new JarFile(jar)) {
+            final Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    directories.add(directoryOf(entry.getName()));
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return directories;
+    }
+
+    public static void writeIndex(final File lib) {
+        final File[] libs = lib.listFiles((dir, name) -> name.endsWith(".jar"));
+        if (libs == null) {
+            throw new IllegalArgumentException("No jar in " + lib);
+        }
+        Arrays.sort(libs);
+        try (final BufferedWriter writer = Files.newBufferedWriter(new File(lib, INDEX).toPath(), StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (final File jar : libs) {
+                writer.newLine();
+                writer.write(jar.getName());
+                writer.newLine();
+                for (final String directory : index(jar)) {
+                    writer.write(directory.isEmpty() ? "/" : directory);
+                    writer.newLine();
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Map<String, Collection<String>> readIndex(final File index) {
+        final Map<String, Collection<String>> jars = new HashMap<>();
+        try (final BufferedReader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
+            Collection<String> current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    current = null;
+                } else if (HEADER.equals(line)) {
+                    // no-op
+                } else if (current == null) {
+                    current = new ArrayList<>();
+                    jars.put(line, current);
+                } else {
+                    current.add("/".equals(line) ? "" : line);
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return jars;
+    }
+
+    // used at build time: java org.apache.microwave.runner.IndexedClassLoader <lib directory>
+    public static void main(final String[] args) {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: " + IndexedClassLoader.class.getName() + " <lib directory>");
+        }
+        writeIndex(new File(args[0]));
+    }
+
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        final String path = name.replace('.', '/') + ".class";
+        for (final Jar jar : jarsFor(path)) {
+            final JarEntry entry = jar.entry(path);
+            if (entry == null) {
+                continue;
+            }
+
+            final int lastDot = name.lastIndexOf('.');
+            if (lastDot > 0) {
+                definePackage(name.substring(0, lastDot), jar);
+            }
+            try (final InputStream stream = jar.file().getInputStream(entry)) {
+                final byte[] bytes = read(stream, entry.getSize());
+                return defineClass(name, bytes, 0, bytes.length, jar.codeSource);
+            } catch (final IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    public URL findResource(final String name) {
+        if (name.endsWith("/")) { // directories are not always entries of the jar
+            return super.findResource(name);
+        }
+        for (final Jar jar : jarsFor(name)) {
+            if (jar.entry(name) != null) {
+                return jar.url(name);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(final String name) throws IOException {
+        if (name.endsWith("/")) {
+            return super.findResources(name);
+        }
+        final List<URL> urls = new ArrayList<>(1);
+        for (final Jar jar : jarsFor(name)) {
+            if (jar.entry(name) != null) {
+                urls.add(jar.url(name));
+            }
+        }
+        return enumeration(urls);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            for (final Jar jar : jars) {
+                jar.close();
+            }
+        }
+    }
+
+    private List<Jar> jarsFor(final String path) {
+        final String normalized = path.startsWith("/") ? path.substring(1) : path;
+        final List<Jar> found = index.get(directoryOf(normalized));
+        return found == null ? emptyList() : found;
+    }
+
+    private void definePackage(final String pkg, final Jar jar) {
+        if (getPackage(pkg) != null) {
+            return;
+        }
+        try {
+            final Manifest manifest = jar.manifest();
+            if (manifest != null) {
+                definePackage(pkg, manifest, jar.codeSource.getLocation());
+            } else {
+                definePackage(pkg, null, null, null, null, null, null, null);
+            }
+        } catch (final IllegalArgumentException iae) {
+            // defined concurrently
+        }
+    }
+
+    private static String directoryOf(final String path) {
+        final int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+    private static byte[] read(final InputStream stream, final long size) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? (int) size : 8192);
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static URL[] toUrls(final Collection<File> files) {
+        final URL[] urls = new URL[files.size()];
+        int i = 0;
+        for (final File file : files) {
+            try {
+                urls[i++] = file.toURI().toURL();
+            } catch (final MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return urls;
+    }
+
+    private static class Jar {
+        private final File path;
+        private final CodeSource codeSource;
+        private final String base;
+        private volatile JarFile file;
+        private volatile Manifest manifest;
+        private volatile boolean manifestRead;
+
+        private Jar(final File path) {
+            this.path = path;
+            try {
+                final URL url = path.toURI().toURL();
+                this.codeSource = new CodeSource(url, (CodeSigner[]) null);
+                this.base = "jar:" + url.toExternalForm() + "!/";
+            } catch (final MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        private JarFile file() throws IOException {
+            JarFile jarFile = file;
+            if (jarFile == null) {
+                synchronized (this) {
+                    jarFile = file;
+                    if (jarFile == null) {
+                        jarFile = new JarFile(path);
+                        file = jarFile;
+                    }
+                }
+            }
+            return jarFile;
+        }
+
+        private JarEntry entry(final String name) {
+            try {
+                return file().getJarEntry(name);
+            } catch (final IOException e) {
+                return null;
+            }
+        }
+
+        private Manifest manifest() {
+            if (!manifestRead) {
+                try {
+                    manifest = file().getManifest();
+                } catch (final IOException e) {
+                    manifest = null;
+                }
+                manifestRead = true;
+            }
+            return manifest;
+        }
+
+        private URL url(final String name) {
+            try {
+                return new URL(base + name);
+            } catch (final MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        private synchronized void close() {
+            if (file == null) {
+                return;
+            }
+            try {
+                file.close();
+            } catch (final IOException e) {
+                // no-op
+            }
+            file = null;
+        }
+    }
+}
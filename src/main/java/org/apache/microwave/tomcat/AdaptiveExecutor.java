@@ -0,0 +1,327 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.util.LifecycleMBeanBase;
+import org.apache.tomcat.util.threads.ResizableExecutor;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// connector executor sizing itself between minThreads and maxThreads instead of a static maxThreads.
+// Every interval (ms) a controller looks at the throughput (completed tasks/s) and the time tasks waited in the queue:
+// - tasks don't wait (< queueWaitTarget ms): more threads wouldn't help, threads not used during the interval are released
+// - tasks wait: hill climbing, the size moves by max(step, size * stepRatio) in the current direction and the direction is reversed when the
+//   previous move did not pay off (growing must bring more than tolerance throughput, shrinking must not cost more than it).
+// I/O bound endpoints keep growing while it helps, CPU bound ones settle around the number of cores.
+// Metrics are the getters, also exposed over JMX as the Executor mbean once added to the service.
+public class AdaptiveExecutor extends LifecycleMBeanBase implements Executor, ResizableExecutor {
+    private static final Logger LOGGER = Logger.getLogger(AdaptiveExecutor.class.getName());
+
+    private String name = "microwave-adaptive";
+    private String namePrefix = "microwave-adaptive-exec-";
+    private int minThreads = 10;
+    private int maxThreads = 200;
+    private long interval = 500;
+    private int step = 2;
+    private double stepRatio = 0.125;
+    private double tolerance = 0.05;
+    private double queueWaitTarget = 5;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder waited = new LongAdder(); // ns spent in the queue by the started tasks
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger(); // max running tasks during the interval
+
+    private volatile ThreadPoolExecutor pool;
+    private ScheduledExecutorService controller;
+
+    // controller state, only touched by the controller thread (volatile for the getters)
+    private volatile double throughput;
+    private volatile double averageQueueWait;
+    private volatile long adjustments;
+    private int direction = 1;
+    private boolean probing;
+    private long lastTick;
+    private long lastStarted;
+    private long lastCompleted;
+    private long lastWaited;
+    private double lastThroughput;
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    public void setNamePrefix(final String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public void setMinThreads(final int minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public void setMaxThreads(final int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public void setInterval(final long interval) {
+        this.interval = interval;
+    }
+
+    public void setStep(final int step) {
+        this.step = step;
+    }
+
+    public void setStepRatio(final double stepRatio) {
+        this.stepRatio = stepRatio;
+    }
+
+    public void setTolerance(final double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setQueueWaitTarget(final double queueWaitTarget) {
+        this.queueWaitTarget = queueWaitTarget;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    @Override
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public double getStepRatio() {
+        return stepRatio;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public double getQueueWaitTarget() {
+        return queueWaitTarget;
+    }
+
+    // threads the controller currently allows
+    public int getCorePoolSize() {
+        return pool == null ? minThreads : pool.getCorePoolSize();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return pool == null ? 0 : pool.getPoolSize();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return running.get();
+    }
+
+    public int getLargestPoolSize() {
+        return pool == null ? 0 : pool.getLargestPoolSize();
+    }
+
+    public int getQueueSize() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public long getCompletedTaskCount() {
+        return completed.sum();
+    }
+
+    // tasks/s during the last interval
+    public double getThroughput() {
+        return throughput;
+    }
+
+    // ms, average queue wait of the tasks started during the last interval
+    public double getAverageQueueWait() {
+        return averageQueueWait;
+    }
+
+    public long getAdjustments() {
+        return adjustments;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        final ThreadPoolExecutor current = pool;
+        if (current == null) { // what the endpoints expect when the executor is stopped
+            throw new RejectedExecutionException(name + " not started");
+        }
+        current.execute(new Task(command));
+    }
+
+    @Override
+    public void execute(final Runnable command, final long timeout, final TimeUnit unit) { // unbounded queue, never waits
+        execute(command);
+    }
+
+    @Override
+    public boolean resizePool(final int corePoolSize, final int maximumPoolSize) { // new bounds, the controller does the rest
+        if (corePoolSize < 1 || maximumPoolSize < corePoolSize) {
+            return false;
+        }
+        minThreads = corePoolSize;
+        maxThreads = maximumPoolSize;
+        return true;
+    }
+
+    @Override
+    public boolean resizeQueue(final int capacity) {
+        return false;
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        if (minThreads < 1 || maxThreads < minThreads || step < 1 || interval <= 0) {
+            throw new LifecycleException("Invalid " + name + " configuration: minThreads=" + minThreads + ", maxThreads=" + maxThreads
+                    + ", step=" + step + ", interval=" + interval);
+        }
+        pool = new ThreadPoolExecutor(minThreads, minThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new TaskThreadFactory(namePrefix, true, Thread.NORM_PRIORITY));
+        lastTick = System.nanoTime();
+        controller = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "microwave-adaptive-executor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        controller.scheduleAtFixedRate(this::adjust, interval, interval, TimeUnit.MILLISECONDS);
+        setState(LifecycleState.STARTING);
+    }
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        setState(LifecycleState.STOPPING);
+        controller.shutdownNow();
+        pool.shutdownNow();
+        controller = null;
+        pool = null;
+    }
+
+    @Override
+    protected String getDomainInternal() {
+        return null; // the service one
+    }
+
+    @Override
+    protected String getObjectNameKeyProperties() {
+        return "type=Executor,name=" + name;
+    }
+
+    private void adjust() {
+        try {
+            final long now = System.nanoTime();
+            final long elapsed = Math.max(1, now - lastTick);
+            final long startedCount = started.sum();
+            final long completedCount = completed.sum();
+            final long waitedNs = waited.sum();
+            throughput = (completedCount - lastCompleted) * TimeUnit.SECONDS.toNanos(1) / (double) elapsed;
+            averageQueueWait = startedCount == lastStarted ? 0 : (waitedNs - lastWaited) / 1_000_000. / (startedCount - lastStarted);
+            lastTick = now;
+            lastStarted = startedCount;
+            lastCompleted = completedCount;
+            lastWaited = waitedNs;
+
+            final int size = pool.getCorePoolSize();
+            final int move = Math.max(step, (int) (size * stepRatio));
+            final int maxRunning = peak.getAndSet(running.get());
+            int target;
+            if (averageQueueWait < queueWaitTarget && pool.getQueue().isEmpty()) { // no backlog
+                target = maxRunning < size ? Math.max(maxRunning, size - move) : size;
+                probing = false;
+                direction = 1;
+            } else if (!probing) { // backlog appeared, start by adding threads
+                probing = true;
+                direction = 1;
+                target = size + move;
+            } else {
+                final double gain = lastThroughput > 0 ? (throughput - lastThroughput) / lastThroughput : 0;
+                if (direction > 0 ? gain <= tolerance : gain < -tolerance) {
+                    direction = -direction;
+                }
+                target = size + direction * move;
+            }
+            lastThroughput = throughput;
+
+            target = Math.max(minThreads, Math.min(maxThreads, target));
+            if (target == size) {
+                if (probing) { // at a bound, probe the other way next time
+                    direction = -direction;
+                }
+                return;
+            }
+            if (target > size) { // keep core <= max at any time
+                pool.setMaximumPoolSize(target);
+                pool.setCorePoolSize(target);
+            } else {
+                pool.setCorePoolSize(target);
+                pool.setMaximumPoolSize(target);
+            }
+            adjustments++;
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(name + ": " + size + " -> " + target + " threads (throughput=" + Math.round(throughput)
+                        + "/s, queue wait=" + averageQueueWait + "ms)");
+            }
+        } catch (final RuntimeException e) { // never kill the controller
+            LOGGER.log(Level.WARNING, "Can't adjust " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private final class Task implements Runnable {
+        private final Runnable delegate;
+        private final long queued = System.nanoTime();
+
+        private Task(final Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            waited.add(System.nanoTime() - queued);
+            started.increment();
+            final int current = running.incrementAndGet();
+            int max;
+            while (current > (max = peak.get()) && !peak.compareAndSet(max, current)) {
+                // retry
+            }
+            try {
+                delegate.run();
+            } finally {
+                running.decrementAndGet();
+                completed.increment();
+            }
+        }
+    }
+}
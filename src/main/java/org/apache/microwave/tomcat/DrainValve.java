@@ -0,0 +1,219 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// counts the requests in progress, async ones until their completion, and once draining
+// asks the clients to close their keep-alive connections (Connection: close) so they reconnect elsewhere,
+// requests in progress when the draining starts included if their response is not yet committed
+// (the response is wrapped to check it before the writes and flushes which can commit it).
+// An async request is counted once: its dispatches are not counted again and its listener follows the startAsync() calls.
+public class DrainValve extends ValveBase {
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private volatile boolean draining;
+
+    public DrainValve() {
+        super(true);
+    }
+
+    public void startDraining() {
+        draining = true;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    @Override
+    public void invoke(final Request request, final Response response) throws IOException, ServletException {
+        closeIfDraining(response);
+        if (request.isAsyncDispatching()) { // already counted, its listener is registered
+            try {
+                getNext().invoke(request, response);
+            } finally {
+                closeIfDraining(response);
+            }
+            return;
+        }
+
+        active.incrementAndGet();
+        boolean async = false;
+        try {
+            response.setResponse(new DrainingResponse(response.getResponse()));
+            getNext().invoke(request, response);
+            if (request.isAsync()) {
+                request.getAsyncContextInternal().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(final AsyncEvent event) {
+                        closeIfDraining(event.getAsyncContext().getResponse());
+                        done();
+                    }
+
+                    @Override
+                    public void onTimeout(final AsyncEvent event) {
+                        // onComplete follows
+                    }
+
+                    @Override
+                    public void onError(final AsyncEvent event) {
+                        // onComplete follows
+                    }
+
+                    @Override
+                    public void onStartAsync(final AsyncEvent event) { // listeners are dropped by a new startAsync()
+                        event.getAsyncContext().addListener(this);
+                    }
+                });
+                async = true;
+            }
+        } finally {
+            closeIfDraining(response);
+            if (!async) {
+                done();
+            }
+        }
+    }
+
+    private void closeIfDraining(final ServletResponse response) {
+        if (draining && HttpServletResponse.class.isInstance(response) && !response.isCommitted()) {
+            HttpServletResponse.class.cast(response).setHeader("Connection", "close");
+        }
+    }
+
+    private class DrainingResponse extends HttpServletResponseWrapper {
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private DrainingResponse(final HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream delegate = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        closeIfDraining(DrainingResponse.this);
+                        delegate.write(b);
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        closeIfDraining(DrainingResponse.this);
+                        delegate.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        closeIfDraining(DrainingResponse.this);
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        closeIfDraining(DrainingResponse.this);
+                        delegate.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(final WriteListener writeListener) {
+                        delegate.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                final PrintWriter delegate = super.getWriter();
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(final char[] buffer, final int off, final int len) {
+                        closeIfDraining(DrainingResponse.this);
+                        delegate.write(buffer, off, len);
+                    }
+
+                    @Override
+                    public void flush() {
+                        closeIfDraining(DrainingResponse.this);
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        closeIfDraining(DrainingResponse.this);
+                        delegate.close();
+                    }
+                }) {
+                    @Override
+                    public boolean checkError() {
+                        return super.checkError() || delegate.checkError();
+                    }
+                };
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            closeIfDraining(this);
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(final int sc, final String msg) throws IOException {
+            closeIfDraining(this);
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(final int sc) throws IOException {
+            closeIfDraining(this);
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(final String location) throws IOException {
+            closeIfDraining(this);
+            super.sendRedirect(location);
+        }
+    }
+
+    private void done() {
+        active.decrementAndGet();
+        completed.incrementAndGet();
+    }
+}
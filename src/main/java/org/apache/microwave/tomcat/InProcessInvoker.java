@@ -0,0 +1,186 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.connector.CoyoteAdapter;
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.ActionHook;
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Collections.emptyMap;
+
+// calls the service pipeline (mapper, valves, filters, servlets) without any socket nor HTTP codec,
+// relies on tomcat support of "in memory" protocols: the ActionHook only tracks startAsync(), async requests are
+// not supported and fail with an UnsupportedOperationException instead of returning an empty response.
+public class InProcessInvoker {
+    public static final String ORIGIN = InProcessInvoker.class.getName() + ".origin"; // request attribute, uri of the origin
+
+    private static final Method SET_HOOK;
+    static {
+        try {
+            SET_HOOK = Request.class.getDeclaredMethod("setHook", ActionHook.class);
+            SET_HOOK.setAccessible(true);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final CoyoteAdapter adapter;
+    private final String host;
+    private final int port;
+
+    public InProcessInvoker(final Service service, final String host, final int port) {
+        final Connector connector = new Connector(); // never started, only used to create requests
+        connector.setService(service);
+        this.adapter = new CoyoteAdapter(connector);
+        this.host = host;
+        this.port = port;
+    }
+
+    public InProcessResponse invoke(final String method, final String uri) {
+        return invoke(method, uri, emptyMap(), null);
+    }
+
+    public InProcessResponse invoke(final String method, final String uri, final Map<String, List<String>> headers, final byte[] body) {
+        return invoke(method, uri, headers, body, null);
+    }
+
+    // origin is the request this call is issued for (batch sub-requests): its client address and scheme are kept
+    // so access control (RemoteAddrValve, CONFIDENTIAL constraints...) sees the real client and the call is marked
+    // with the ORIGIN attribute. Without origin the call comes from the local JVM.
+    public InProcessResponse invoke(final String method, final String uri, final Map<String, List<String>> headers, final byte[] body,
+                                    final HttpServletRequest origin) {
+        final AtomicBoolean asyncStarted = new AtomicBoolean();
+        final Request request = new Request();
+        try { // nothing else needs an answer, other actions are no-ops as without hook
+            SET_HOOK.invoke(request, (ActionHook) (action, param) -> {
+                if (action == ActionCode.ASYNC_START) {
+                    asyncStarted.set(true);
+                }
+            });
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+        final Response response = new Response();
+        request.setResponse(response);
+
+        final int query = uri.indexOf('?');
+        final byte[] path = (query < 0 ? uri : uri.substring(0, query)).getBytes(StandardCharsets.UTF_8);
+        request.requestURI().setBytes(path, 0, path.length);
+        if (query >= 0) {
+            request.queryString().setString(uri.substring(query + 1));
+        }
+        request.method().setString(method);
+        request.protocol().setString("HTTP/1.1");
+        final int serverPort;
+        if (origin == null) {
+            serverPort = port;
+            request.scheme().setString("http");
+            request.remoteAddr().setString("127.0.0.1");
+            request.remoteHost().setString("localhost");
+        } else {
+            serverPort = origin.getServerPort();
+            request.scheme().setString(origin.isSecure() ? "https" : origin.getScheme()); // the adapter derives isSecure() from it
+            request.remoteAddr().setString(origin.getRemoteAddr());
+            request.remoteHost().setString(origin.getRemoteHost());
+            request.setAttribute(ORIGIN, origin.getRequestURI());
+        }
+        request.serverName().setString(host);
+        request.setServerPort(serverPort);
+        request.localAddr().setString("127.0.0.1");
+        request.localName().setString(host);
+        request.setLocalPort(port);
+
+        final MimeHeaders mimeHeaders = request.getMimeHeaders();
+        mimeHeaders.addValue("host").setString(host + ':' + serverPort);
+        for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (final String value : header.getValue()) {
+                mimeHeaders.addValue(header.getKey()).setString(value);
+            }
+            if ("content-type".equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                request.contentType().setString(header.getValue().get(0));
+            }
+        }
+        if (body != null) {
+            request.setContentLength(body.length);
+            request.setInputBuffer(new BodyInputBuffer(body));
+        } else {
+            request.setInputBuffer(new BodyInputBuffer(new byte[0]));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.setOutputBuffer(new BodyOutputBuffer(out));
+        try {
+            adapter.service(request, response);
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+        if (asyncStarted.get()) {
+            throw new UnsupportedOperationException("Asynchronous requests can't be invoked in process: " + method + " " + uri);
+        }
+
+        final Map<String, List<String>> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final MimeHeaders rawHeaders = response.getMimeHeaders();
+        for (int i = 0; i < rawHeaders.size(); i++) {
+            responseHeaders.computeIfAbsent(rawHeaders.getName(i).toString(), k -> new ArrayList<>(1)).add(rawHeaders.getValue(i).toString());
+        }
+        if (response.getContentType() != null) {
+            responseHeaders.computeIfAbsent("Content-Type", k -> new ArrayList<>(1)).add(response.getContentType());
+        }
+        return new InProcessResponse(response.getStatus(), responseHeaders, out.toByteArray());
+    }
+
+    private static class BodyInputBuffer implements InputBuffer {
+        private final byte[] body;
+        private boolean read;
+
+        private BodyInputBuffer(final byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public int doRead(final ByteChunk chunk) {
+            if (read || body.length == 0) {
+                return -1;
+            }
+            read = true;
+            chunk.setBytes(body, 0, body.length);
+            return body.length;
+        }
+    }
+
+    private static class BodyOutputBuffer implements OutputBuffer {
+        private final ByteArrayOutputStream out;
+
+        private BodyOutputBuffer(final ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public int doWrite(final ByteChunk chunk) {
+            out.write(chunk.getBuffer(), chunk.getStart(), chunk.getLength());
+            return chunk.getLength();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return out.size();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.tomcat.util.net.AbstractEndpoint;
+import org.apache.tomcat.util.net.SSLHostConfig;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// polls the keystore (last modified/size, works with atomic moves and symlink swaps) and replaces the SSLHostConfig
+// of the running connector: new handshakes use the new certificate, established connections keep the old one.
+// tomcat 8.5.6 has no reload API so it creates the SSL context and swaps the endpoint configuration itself.
+public class KeystoreWatcher implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(KeystoreWatcher.class.getName());
+
+    private final Connector connector;
+    private final File keystore;
+    private final Supplier<SSLHostConfig> factory;
+    private final ScheduledExecutorService scheduler;
+    private long lastModified;
+    private long length;
+
+    public KeystoreWatcher(final Connector connector, final File keystore, final Supplier<SSLHostConfig> factory, final long interval) {
+        this.connector = connector;
+        this.keystore = keystore;
+        this.factory = factory;
+        this.lastModified = keystore.lastModified();
+        this.length = keystore.length();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "microwave-keystore-watcher-" + connector.getPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        final long modified = keystore.lastModified();
+        final long size = keystore.length();
+        if (modified == lastModified && size == length) {
+            return;
+        }
+        try {
+            reload();
+            lastModified = modified;
+            length = size;
+            LOGGER.info("Reloaded " + keystore + " for connector on port " + connector.getPort());
+        } catch (final RuntimeException e) { // likely written in place, retry on next check
+            LOGGER.log(Level.WARNING, "Can't reload " + keystore + ": " + e.getMessage(), e);
+        }
+    }
+
+    public synchronized void reload() {
+        try {
+            final Method getEndpoint = AbstractProtocol.class.getDeclaredMethod("getEndpoint");
+            getEndpoint.setAccessible(true);
+            final AbstractEndpoint<?> endpoint = AbstractEndpoint.class.cast(getEndpoint.invoke(connector.getProtocolHandler()));
+
+            final Field configsField = AbstractEndpoint.class.getDeclaredField("sslHostConfigs");
+            configsField.setAccessible(true);
+            @SuppressWarnings("unchecked")
+            final ConcurrentMap<String, SSLHostConfig> configs = ConcurrentMap.class.cast(configsField.get(endpoint));
+
+            final SSLHostConfig config = factory.get();
+            final SSLHostConfig current = configs.get(config.getHostName());
+            final Method getSslConfigType = AbstractEndpoint.class.getDeclaredMethod("getSslConfigType");
+            getSslConfigType.setAccessible(true);
+            config.setConfigType(SSLHostConfig.Type.class.cast(getSslConfigType.invoke(endpoint)));
+
+            // create the context before swapping the config so a broken keystore keeps the current one
+            final Method createSSLContext = AbstractEndpoint.class.getDeclaredMethod("createSSLContext", SSLHostConfig.class);
+            createSSLContext.setAccessible(true);
+            createSSLContext.invoke(endpoint, config);
+            configs.put(config.getHostName(), config);
+
+            if (current != null) {
+                final Method releaseSSLContext = AbstractEndpoint.class.getDeclaredMethod("releaseSSLContext", SSLHostConfig.class);
+                releaseSSLContext.setAccessible(true);
+                releaseSSLContext.invoke(endpoint, current);
+            }
+        } catch (final InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (final NoSuchMethodException | NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,97 @@
+package org.apache.microwave.tomcat;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Collections.enumeration;
+import static java.util.Collections.list;
+import static java.util.Collections.unmodifiableList;
+
+// facade of a static classpath loader memoizing resource lookups (including misses):
+// tomcat, OWB and CXF request the same descriptors again and again during a deployment.
+// class loading is not cached, the parent already does it for found classes and misses can become
+// hits later (proxies defined at runtime).
+// it is an URLClassLoader without URLs to let scanners (xbean) walk the parent as they do without the facade.
+// each cache keeps at most maxEntries names (further names are looked up without caching), ProvidedLoader clears
+// them once its context started since the repeated lookups are the deployment ones.
+public class LookupCacheClassLoader extends URLClassLoader {
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final ConcurrentMap<String, Optional<URL>> resources = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<URL>> allResources = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder saved = new LongAdder();
+    private final int maxEntries;
+
+    public LookupCacheClassLoader(final ClassLoader delegate) {
+        this(delegate, 4096);
+    }
+
+    public LookupCacheClassLoader(final ClassLoader delegate, final int maxEntries) {
+        super(new URL[0], delegate);
+        this.maxEntries = maxEntries;
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getSavedLookups() {
+        return saved.sum();
+    }
+
+    public int getCachedEntries() {
+        return resources.size() + allResources.size();
+    }
+
+    public void clear() {
+        resources.clear();
+        allResources.clear();
+    }
+
+    @Override
+    public URL getResource(final String name) {
+        lookups.increment();
+        final Optional<URL> cached = resources.get(name);
+        if (cached != null) {
+            saved.increment();
+            return cached.orElse(null);
+        }
+        final Optional<URL> url = Optional.ofNullable(getParent().getResource(name));
+        if (resources.size() < maxEntries) {
+            resources.putIfAbsent(name, url);
+        }
+        return url.orElse(null);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(final String name) throws IOException {
+        lookups.increment();
+        final List<URL> cached = allResources.get(name);
+        if (cached != null) {
+            saved.increment();
+            return enumeration(cached);
+        }
+        final List<URL> urls = unmodifiableList(new ArrayList<>(list(getParent().getResources(name))));
+        if (allResources.size() < maxEntries) {
+            allResources.putIfAbsent(name, urls);
+        }
+        return enumeration(urls);
+    }
+
+    @Override
+    public String toString() {
+        return "LookupCacheClassLoader{lookups=" + getLookups() + ", saved=" + getSavedLookups()
+                + ", cached=" + getCachedEntries() + ", delegate=" + getParent() + "}";
+    }
+}
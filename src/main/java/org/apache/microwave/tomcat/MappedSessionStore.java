@@ -0,0 +1,235 @@
+package org.apache.microwave.tomcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// append only log of serialized sessions in a memory mapped file:
+// [int size][byte state][long lastAccessedTime][int maxInactiveInterval][short idLength][id][data]
+// only headers are read at startup, data are read when a session is requested.
+// The file is at most 2GB (a single mapping) and is unmapped on close.
+public class MappedSessionStore implements AutoCloseable {
+    private static final byte DEAD = 0;
+    private static final byte LIVE = 1;
+    private static final byte LIVE_WITHOUT_ATTRIBUTES = 2;
+    private static final int HEADER = 4 + 1 + 8 + 4 + 2;
+    private static final int INITIAL_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int end;
+    private long deadBytes;
+
+    public MappedSessionStore(final File file) {
+        this.file = file;
+    }
+
+    public synchronized MappedSessionStore open() throws IOException {
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Can't create " + file.getParentFile());
+        }
+        raf = new RandomAccessFile(file, "rw");
+        map((int) Math.max(INITIAL_SIZE, raf.length()));
+
+        index.clear(); // the store can be reopened (context restart)
+        deadBytes = 0;
+        end = 0;
+        while (end + HEADER <= buffer.capacity()) {
+            final int size = buffer.getInt(end);
+            if (size <= 0 || (long) end + size > buffer.capacity()) {
+                break;
+            }
+            if (buffer.get(end + 4) != DEAD) {
+                index.put(readId(end), (long) end);
+            } else {
+                deadBytes += size;
+            }
+            end += size;
+        }
+        return this;
+    }
+
+    public Collection<String> keys() {
+        return index.keySet();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // attributes=false lets expired sessions be dropped without reading their data
+    public synchronized void save(final String id, final long lastAccessedTime, final int maxInactiveInterval,
+                                  final boolean attributes, final byte[] data) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Store closed: " + file);
+        }
+        final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        final int size = HEADER + idBytes.length + data.length;
+        if ((long) end + size + 4 > buffer.capacity()) {
+            compactOrGrow(size);
+        }
+
+        final int offset = end;
+        buffer.putInt(offset + size, 0); // end marker for the next startup
+        buffer.position(offset);
+        buffer.putInt(size);
+        buffer.put(attributes ? LIVE : LIVE_WITHOUT_ATTRIBUTES);
+        buffer.putLong(lastAccessedTime);
+        buffer.putInt(maxInactiveInterval);
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        buffer.put(data);
+        end += size;
+
+        final Long old = index.put(id, (long) offset);
+        if (old != null) {
+            kill(old.intValue());
+        }
+    }
+
+    public synchronized byte[] load(final String id) {
+        final Long offset = index.get(id);
+        if (offset == null) {
+            return null;
+        }
+        final int start = offset.intValue();
+        final int idLength = buffer.getShort(start + HEADER - 2);
+        final byte[] data = new byte[buffer.getInt(start) - HEADER - idLength];
+        buffer.position(start + HEADER + idLength);
+        buffer.get(data);
+        return data;
+    }
+
+    // false only if the session had no attribute when saved (unknown sessions included)
+    public synchronized boolean hasAttributes(final String id) {
+        final Long offset = index.get(id);
+        return offset != null && buffer.get(offset.intValue() + 4) != LIVE_WITHOUT_ATTRIBUTES;
+    }
+
+    public synchronized long getLastAccessedTime(final String id) {
+        final Long offset = index.get(id);
+        return offset == null ? -1 : buffer.getLong(offset.intValue() + 4 + 1);
+    }
+
+    public synchronized void remove(final String id) {
+        final Long offset = index.remove(id);
+        if (offset != null) {
+            kill(offset.intValue());
+        }
+    }
+
+    // ids of the expired sessions, computed from the headers only
+    public synchronized Collection<String> expired(final long now) {
+        final Collection<String> expired = new ArrayList<>();
+        for (final Map.Entry<String, Long> entry : index.entrySet()) {
+            final int offset = entry.getValue().intValue();
+            final int maxInactive = buffer.getInt(offset + 4 + 1 + 8);
+            if (maxInactive > 0 && now - buffer.getLong(offset + 4 + 1) > maxInactive * 1000L) {
+                expired.add(entry.getKey());
+            }
+        }
+        return expired;
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        if (buffer != null) {
+            buffer.putInt(0, 0);
+        }
+        end = 0;
+        deadBytes = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf == null) {
+            return;
+        }
+        buffer.force();
+        unmap(buffer);
+        buffer = null;
+        index.clear();
+        raf.close();
+        raf = null;
+    }
+
+    private void kill(final int offset) {
+        buffer.put(offset + 4, DEAD);
+        deadBytes += buffer.getInt(offset);
+    }
+
+    private String readId(final int offset) {
+        final byte[] id = new byte[buffer.getShort(offset + HEADER - 2)];
+        buffer.position(offset + HEADER);
+        buffer.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private void compactOrGrow(final int needed) throws IOException {
+        if (deadBytes > end / 2) { // rewrite live records at the beginning of the file, order is kept so we can do it in place
+            int write = 0;
+            int read = 0;
+            while (read < end) {
+                final int size = buffer.getInt(read);
+                if (buffer.get(read + 4) != DEAD) {
+                    if (write != read) {
+                        final byte[] record = new byte[size];
+                        buffer.position(read);
+                        buffer.get(record);
+                        buffer.position(write);
+                        buffer.put(record);
+                        index.put(readId(write), (long) write);
+                    }
+                    write += size;
+                }
+                read += size;
+            }
+            end = write;
+            deadBytes = 0;
+            buffer.putInt(end, 0);
+        }
+        final long required = (long) end + needed + 4;
+        if (required > buffer.capacity()) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Session store full (2GB): " + file);
+            }
+            map((int) Math.min(Integer.MAX_VALUE, Math.max(2L * buffer.capacity(), required)));
+        }
+    }
+
+    private void map(final int size) throws IOException {
+        final MappedByteBuffer old = buffer;
+        if (old != null) {
+            old.force();
+        }
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (old != null) {
+            unmap(old);
+        }
+    }
+
+    // a mapping is released when its buffer is garbage collected (keeping the file open on some OS),
+    // release it now with the JDK 8 cleaner, if not accessible the GC will do it
+    private static void unmap(final MappedByteBuffer mapped) {
+        try {
+            final Method cleanerMethod = mapped.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(mapped);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (final Exception e) {
+            // no-op
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.webresources.AbstractResource;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.microwave.war.MappedZip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.jar.Manifest;
+
+// entry of a MappedWarResourceSet, content comes from the mapped archive, there is no file behind it
+public class MappedWarResource extends AbstractResource {
+    private static final Log LOG = LogFactory.getLog(MappedWarResource.class);
+
+    private final MappedZip zip;
+    private final MappedZip.Entry entry;
+    private final URL url;
+    private final URL codeBase;
+    private final Manifest manifest;
+    private final String name;
+
+    public MappedWarResource(final WebResourceRoot root, final String webAppPath, final MappedZip zip, final MappedZip.Entry entry,
+                             final URL url, final URL codeBase, final Manifest manifest) {
+        super(root, webAppPath);
+        this.zip = zip;
+        this.entry = entry;
+        this.url = url;
+        this.codeBase = codeBase;
+        this.manifest = manifest;
+
+        final String path = webAppPath.endsWith("/") ? webAppPath.substring(0, webAppPath.length() - 1) : webAppPath;
+        this.name = path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public long getLastModified() {
+        return entry.getTime();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return entry.isDirectory();
+    }
+
+    @Override
+    public boolean isFile() {
+        return !entry.isDirectory();
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getContentLength() {
+        return entry.isDirectory() ? -1 : entry.getSize();
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return null;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public byte[] getContent() {
+        if (entry.isDirectory()) {
+            return null;
+        }
+        try {
+            return zip.read(entry);
+        } catch (final IOException e) {
+            LOG.debug("Can't read " + getWebappPath(), e);
+            return null; // like tomcat, never return corrupted content
+        }
+    }
+
+    @Override
+    public long getCreation() {
+        return entry.getTime();
+    }
+
+    @Override
+    public URL getURL() {
+        return url;
+    }
+
+    @Override
+    public URL getCodeBase() {
+        return codeBase;
+    }
+
+    @Override
+    public Certificate[] getCertificates() { // signed jars are not verified
+        return null;
+    }
+
+    @Override
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    @Override
+    protected InputStream doGetInputStream() {
+        if (entry.isDirectory()) {
+            return null;
+        }
+        try {
+            return zip.open(entry);
+        } catch (final IOException e) {
+            LOG.debug("Can't open " + getWebappPath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    protected Log getLog() {
+        return LOG;
+    }
+}
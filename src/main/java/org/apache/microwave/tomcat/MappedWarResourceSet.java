@@ -0,0 +1,188 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.webresources.AbstractResourceSet;
+import org.apache.catalina.webresources.EmptyResource;
+import org.apache.microwave.war.MappedWar;
+import org.apache.microwave.war.MappedZip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableSet;
+
+// read only resource set over a MappedWar (lib == null) or one of its WEB-INF/lib jars,
+// same path semantic as tomcat archive resource sets but nothing is extracted nor opened with a JarFile
+public class MappedWarResourceSet extends AbstractResourceSet {
+    private final MappedWar war;
+    private final String lib;
+
+    private MappedZip zip;
+    private URL baseUrl;
+    private URL codeBase;
+    private MappedZip.Entry root;
+
+    public MappedWarResourceSet(final WebResourceRoot root, final String webAppMount, final MappedWar war, final String lib,
+                                final String internalPath) {
+        setRoot(root);
+        setWebAppMount(webAppMount);
+        setInternalPath(internalPath);
+        setBase(war.getFile().getAbsolutePath());
+        this.war = war;
+        this.lib = lib;
+    }
+
+    @Override
+    protected void initInternal() throws LifecycleException {
+        try {
+            zip = lib == null ? war.getZip() : war.getLib(lib); // for libs it waits for the parallel indexing
+            setManifest(zip.getManifest());
+        } catch (final IOException e) {
+            throw new LifecycleException("Can't read " + (lib == null ? "" : lib + " in ") + war.getFile(), e);
+        }
+        baseUrl = war.url(lib, "");
+        codeBase = lib == null ? baseUrl : war.url(null, lib);
+        root = MappedZip.Entry.root(war.getFile().lastModified());
+    }
+
+    @Override
+    public WebResource getResource(final String path) {
+        checkPath(path);
+        final String webAppMount = getWebAppMount();
+        final WebResourceRoot webResourceRoot = getRoot();
+        if (!path.startsWith(webAppMount)) {
+            return new EmptyResource(webResourceRoot, path);
+        }
+
+        final String pathInArchive = toArchivePath(path.substring(webAppMount.length()));
+        if (pathInArchive.isEmpty()) {
+            return resource(path.endsWith("/") ? path : path + '/', root);
+        }
+        String webAppPath = path;
+        MappedZip.Entry entry = null;
+        if (pathInArchive.charAt(pathInArchive.length() - 1) != '/') { // folders are found with or without the trailing slash
+            entry = zip.getEntry(pathInArchive + '/');
+            if (entry != null) {
+                webAppPath = path + '/';
+            }
+        }
+        if (entry == null) {
+            entry = zip.getEntry(pathInArchive);
+        }
+        return entry == null ? new EmptyResource(webResourceRoot, path) : resource(webAppPath, entry);
+    }
+
+    @Override
+    public String[] list(final String path) {
+        checkPath(path);
+        final String webAppMount = getWebAppMount();
+        if (!path.startsWith(webAppMount)) { // the first segment of the mount if path is one of its parents
+            final String parent = path.endsWith("/") ? path : path + '/';
+            if (!webAppMount.startsWith(parent)) {
+                return new String[0];
+            }
+            final int end = webAppMount.indexOf('/', parent.length());
+            return new String[]{webAppMount.substring(parent.length(), end < 0 ? webAppMount.length() : end)};
+        }
+        final String folder = toFolder(toArchivePath(path.substring(webAppMount.length())));
+        final List<String> result = new ArrayList<>();
+        for (final String child : children(folder)) {
+            result.add(child.endsWith("/") ? child.substring(folder.length(), child.length() - 1) : child.substring(folder.length()));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public Set<String> listWebAppPaths(final String path) {
+        checkPath(path);
+        final String webAppMount = getWebAppMount();
+        final Set<String> result = new HashSet<>();
+        if (!path.startsWith(webAppMount)) {
+            final String parent = path.endsWith("/") ? path : path + '/';
+            if (webAppMount.startsWith(parent)) {
+                final int end = webAppMount.indexOf('/', parent.length());
+                result.add(end < 0 ? webAppMount + '/' : webAppMount.substring(0, end + 1));
+            }
+            return unmodifiableSet(result);
+        }
+        final String folder = toFolder(toArchivePath(path.substring(webAppMount.length())));
+        final int internalPathLength = getInternalPath().length(); // "/x" length is the one of the "x/" prefix
+        for (final String child : children(folder)) {
+            result.add(webAppMount + '/' + child.substring(internalPathLength));
+        }
+        return unmodifiableSet(result);
+    }
+
+    @Override
+    public boolean mkdir(final String path) {
+        checkPath(path);
+        return false;
+    }
+
+    @Override
+    public boolean write(final String path, final InputStream is, final boolean overwrite) {
+        checkPath(path);
+        if (is == null) {
+            throw new NullPointerException("No content to write to " + path);
+        }
+        return false;
+    }
+
+    @Override
+    public URL getBaseUrl() {
+        return baseUrl;
+    }
+
+    @Override
+    public void setReadOnly(final boolean readOnly) {
+        if (!readOnly) {
+            throw new IllegalArgumentException(war.getFile() + " is served in place, it can't be writable");
+        }
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public void gc() {
+        // no-op, nothing is opened
+    }
+
+    private WebResource resource(final String webAppPath, final MappedZip.Entry entry) {
+        return new MappedWarResource(getRoot(), webAppPath, zip, entry, war.url(lib, entry.getName()), codeBase, getManifest());
+    }
+
+    // direct children entry names of an archive folder
+    private Collection<String> children(final String folder) {
+        final Collection<String> children = new ArrayList<>();
+        for (final MappedZip.Entry entry : zip.getEntries()) {
+            final String name = entry.getName();
+            if (name.length() > folder.length() && name.startsWith(folder)) {
+                final int slash = name.indexOf('/', folder.length());
+                if (slash < 0 || slash == name.length() - 1) {
+                    children.add(name);
+                }
+            }
+        }
+        return children;
+    }
+
+    private String toArchivePath(final String pathInWebApp) {
+        final String path = getInternalPath() + pathInWebApp;
+        return !path.isEmpty() && path.charAt(0) == '/' ? path.substring(1) : path;
+    }
+
+    private static String toFolder(final String pathInArchive) {
+        return pathInArchive.isEmpty() || pathInArchive.endsWith("/") ? pathInArchive : pathInArchive + '/';
+    }
+}
@@ -0,0 +1,85 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.WebResourceSet;
+import org.apache.catalina.webresources.StandardRoot;
+import org.apache.microwave.war.MappedWar;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.Executor;
+
+// serves a .war docBase in place (no expansion, no JarFile per nested jar): the war and its WEB-INF/lib jars
+// are MappedWar resource sets, any other docBase is handled as usual.
+// The war must not be modified while deployed since it is mapped, redeploy a new file instead.
+public class MappedWarRoot extends StandardRoot {
+    private final long cacheSize;
+    private final int maxCachedEntrySize;
+    private final Executor executor;
+    private volatile MappedWar war;
+
+    public MappedWarRoot(final Context context, final long cacheSize, final int maxCachedEntrySize, final Executor executor) {
+        super(context);
+        this.cacheSize = cacheSize;
+        this.maxCachedEntrySize = maxCachedEntrySize;
+        this.executor = executor;
+    }
+
+    public MappedWar getWar() {
+        return war;
+    }
+
+    @Override
+    protected WebResourceSet createMainResourceSet() {
+        final String docBase = getContext().getDocBase();
+        final File file = docBase == null ? null : new File(docBase);
+        if (file == null || !file.isFile() || !docBase.endsWith(".war")) {
+            return super.createMainResourceSet();
+        }
+        try {
+            war = MappedWar.open(file, cacheSize, maxCachedEntrySize, executor);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Can't map " + file, e);
+        }
+        return new MappedWarResourceSet(this, "/", war, null, "/");
+    }
+
+    @Override
+    public void createWebResourceSet(final ResourceSetType type, final String webAppMount, final URL url, final String internalPath) {
+        if (war == null || !MappedWar.PROTOCOL.equals(url.getProtocol())) {
+            super.createWebResourceSet(type, webAppMount, url, internalPath);
+            return;
+        }
+        final String path = url.getPath();
+        final MappedWarResourceSet set = new MappedWarResourceSet(this, webAppMount, war, path.substring(path.indexOf("!/") + 2), internalPath);
+        switch (type) {
+            case PRE:
+                addPreResources(set);
+                break;
+            case CLASSES_JAR:
+                set.setClassLoaderOnly(true);
+                addClassResources(set);
+                break;
+            case RESOURCE_JAR:
+                set.setStaticOnly(true);
+                addJarResources(set);
+                break;
+            case POST:
+                addPostResources(set);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown resource set type: " + type);
+        }
+    }
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        if (war != null) {
+            war.close();
+            war = null;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.ManagerBase;
+import org.apache.catalina.session.StandardSession;
+import org.apache.catalina.util.CustomObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// bounded manager: when maxSessions is reached the least recently used session is evicted,
+// LRU is approximated with a second chance (clock) queue to stay lock free, only the admission of a session
+// (eviction then creation or load) is serialized when bounded so concurrent admissions don't race past maxSessions.
+// stateless mode just forbids session creation: createSession() returns null so request.getSession() is null
+// (no 500, no cookie) and the attempt is counted in rejectedSessions.
+// sessions used by a request in progress are never evicted, if they all are the bound is exceeded until the next admission.
+// with a store, sessions are written when they change (by the background thread, not the request one),
+// loaded lazily and evicted sessions are only dropped from memory.
+public class MicrowaveSessionManager extends ManagerBase {
+    private final Queue<EvictionEntry> evictionQueue = new ConcurrentLinkedQueue<>();
+    private final Queue<PersistentSession> pendingSaves = new ConcurrentLinkedQueue<>();
+    private final AtomicLong evictedSessions = new AtomicLong();
+    private final Object admission = new Object();
+    private int maxSessions = -1;
+    private boolean stateless;
+    private MappedSessionStore store;
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(final int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    public boolean isStateless() {
+        return stateless;
+    }
+
+    public void setStateless(final boolean stateless) {
+        this.stateless = stateless;
+    }
+
+    public MappedSessionStore getStore() {
+        return store;
+    }
+
+    public void setStore(final MappedSessionStore store) {
+        this.store = store;
+    }
+
+    public long getEvictedSessions() {
+        return evictedSessions.get();
+    }
+
+    @Override
+    public Session createSession(final String sessionId) {
+        if (stateless) {
+            rejectedSessions++;
+            return null;
+        }
+        if (maxSessions <= 0) {
+            return super.createSession(sessionId);
+        }
+        synchronized (admission) {
+            makeRoom();
+            return super.createSession(sessionId);
+        }
+    }
+
+    @Override
+    public Session findSession(final String id) {
+        if (stateless || id == null) {
+            return null;
+        }
+        final Session session = sessions.get(id);
+        if (session != null || store == null) {
+            return session;
+        }
+        return loadSession(id);
+    }
+
+    @Override
+    public Session createEmptySession() {
+        return store == null ? new CountedSession(this) : new PersistentSession(this);
+    }
+
+    @Override
+    public void add(final Session session) {
+        super.add(session);
+        if (maxSessions > 0) {
+            evictionQueue.add(new EvictionEntry(session));
+        }
+    }
+
+    @Override
+    public void remove(final Session session, final boolean update) {
+        super.remove(session, update);
+        if (store != null && session.getIdInternal() != null) {
+            store.remove(session.getIdInternal());
+        }
+    }
+
+    @Override
+    public void backgroundProcess() { // writes every run, expires every processExpiresFrequency runs
+        if (store != null) {
+            flushPendingSaves();
+        }
+        super.backgroundProcess();
+    }
+
+    @Override
+    public void processExpires() { // iterate the map directly, no need of the array copy of findSessions()
+        final long start = System.currentTimeMillis();
+        for (final Session session : sessions.values()) {
+            session.isValid(); // expires it if needed
+        }
+        if (maxSessions > 0) {
+            evictionQueue.removeIf(e -> sessions.get(e.id) != e.session);
+        }
+        if (store != null) {
+            for (final String id : store.expired(start)) {
+                if (sessions.containsKey(id)) {
+                    continue;
+                }
+                if (store.hasAttributes(id)) { // loaded (isValid() expires it) to let attributes and CDI be notified
+                    loadSession(id);
+                } else { // nothing to deserialize, the header is enough to notify the listeners
+                    expireFromHeader(id);
+                }
+            }
+        }
+        processingTime += System.currentTimeMillis() - start;
+    }
+
+    @Override
+    public void load() {
+        // no-op
+    }
+
+    @Override
+    public void unload() {
+        // no-op
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        super.startInternal();
+        if (store != null) {
+            try {
+                store.open();
+            } catch (final IOException e) {
+                throw new LifecycleException(e);
+            }
+        }
+        setState(LifecycleState.STARTING);
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        setState(LifecycleState.STOPPING);
+        if (store == null) {
+            for (final Session session : sessions.values()) {
+                if (session.isValid()) {
+                    session.expire();
+                }
+            }
+        } else { // only flush what changed since the last write, others are already on disk
+            for (final Session session : sessions.values()) {
+                final PersistentSession persistentSession = PersistentSession.class.cast(session);
+                if (persistentSession.isValid() && persistentSession.needsSave()) {
+                    persistentSession.passivate();
+                    save(persistentSession);
+                }
+            }
+            sessions.clear();
+            pendingSaves.clear();
+            try {
+                store.close();
+            } catch (final IOException e) {
+                throw new LifecycleException(e);
+            }
+        }
+        evictionQueue.clear();
+        super.stopInternal();
+    }
+
+    private void makeRoom() {
+        while (sessions.size() >= maxSessions && evictOne()) {
+            // no-op
+        }
+    }
+
+    private boolean evictOne() {
+        int secondChances = maxSessions;
+        int inUse = evictionQueue.size(); // a whole round of sessions in use: nothing can be evicted now
+        EvictionEntry entry;
+        while ((entry = evictionQueue.poll()) != null) {
+            if (sessions.get(entry.id) != entry.session) { // already removed or id changed
+                continue;
+            }
+            if (CountedSession.class.cast(entry.session).isInUse()) { // expiring or dropping it would break the request
+                evictionQueue.add(entry);
+                if (inUse-- <= 0) {
+                    return false;
+                }
+                continue;
+            }
+            final long accessed = entry.session.getThisAccessedTimeInternal();
+            if (accessed != entry.accessed && secondChances-- > 0) { // used since queued, requeue it
+                entry.accessed = accessed;
+                evictionQueue.add(entry);
+                continue;
+            }
+            if (store == null) {
+                entry.session.expire();
+            } else { // on disk anyway so just release the memory
+                final PersistentSession session = PersistentSession.class.cast(entry.session);
+                if (session.needsSave()) {
+                    session.passivate();
+                    save(session);
+                }
+                super.remove(session, false);
+            }
+            evictedSessions.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    // sessions touched by requests since the last run, the ones in use again are queued back by their next endAccess()
+    private void flushPendingSaves() {
+        PersistentSession session;
+        while ((session = pendingSaves.poll()) != null) {
+            session.queued.set(false);
+            synchronized (session) { // expire() holds it while removing the session from the store
+                if (!session.isInUse() && session.isValid() && sessions.get(session.getIdInternal()) == session && session.needsSave()) {
+                    save(session);
+                }
+            }
+        }
+    }
+
+    private Session loadSession(final String id) {
+        final byte[] data = store.load(id);
+        if (data == null) {
+            return null;
+        }
+
+        final PersistentSession session = new PersistentSession(this);
+        final ClassLoader oldLoader = getContext().bind(Globals.IS_SECURITY_ENABLED, null);
+        try (final ObjectInputStream ois = new CustomObjectInputStream(new ByteArrayInputStream(data),
+                Thread.currentThread().getContextClassLoader(), getContext().getLogger(),
+                getSessionAttributeValueClassNamePattern(), getWarnOnSessionAttributeFilterFailure())) {
+            session.readObjectData(ois);
+        } catch (final IOException | ClassNotFoundException e) {
+            getContext().getLogger().warn("Can't load session " + id + ", dropping it", e);
+            store.remove(id);
+            return null;
+        } finally {
+            getContext().unbind(Globals.IS_SECURITY_ENABLED, oldLoader);
+        }
+        session.setManager(this);
+        session.markSaved();
+        if (!session.isValid()) { // expired while on disk
+            return null;
+        }
+
+        final Session existing;
+        if (maxSessions > 0) {
+            synchronized (admission) {
+                existing = sessions.get(id);
+                if (existing == null) {
+                    makeRoom();
+                    sessions.put(id, session);
+                    evictionQueue.add(new EvictionEntry(session));
+                }
+            }
+        } else {
+            existing = sessions.putIfAbsent(id, session);
+        }
+        if (existing != null) { // concurrent load
+            return existing;
+        }
+        session.activate(); // restored like StandardManager.load() does, it is not a new session for the listeners
+        return session;
+    }
+
+    private void expireFromHeader(final String id) {
+        final PersistentSession session = new PersistentSession(this);
+        session.fromHeader(id, store.getLastAccessedTime(id));
+        session.expire(); // notifies the listeners then remove() drops it from the store
+    }
+
+    private void save(final PersistentSession session) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            session.writeObjectData(oos);
+        } catch (final IOException e) {
+            getContext().getLogger().warn("Can't serialize session " + session.getIdInternal(), e);
+            return;
+        }
+        try {
+            store.save(session.getIdInternal(), session.getThisAccessedTimeInternal(), session.getMaxInactiveInterval(),
+                    session.hasAttributes(), baos.toByteArray());
+            session.markSaved();
+        } catch (final IOException e) {
+            getContext().getLogger().warn("Can't save session " + session.getIdInternal(), e);
+        }
+    }
+
+    private static class CountedSession extends StandardSession {
+        private final AtomicInteger requests = new AtomicInteger(); // StandardSession only counts with ACTIVITY_CHECK
+
+        private CountedSession(final Manager manager) {
+            super(manager);
+        }
+
+        boolean isInUse() {
+            return requests.get() > 0;
+        }
+
+        @Override
+        public void access() {
+            super.access();
+            requests.incrementAndGet();
+        }
+
+        @Override
+        public void endAccess() {
+            requests.decrementAndGet();
+            super.endAccess();
+        }
+    }
+
+    private static class PersistentSession extends CountedSession {
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private volatile boolean dirty = true;
+        private volatile long savedAccessedTime;
+
+        private PersistentSession(final Manager manager) {
+            super(manager);
+        }
+
+        private boolean needsSave() {
+            return dirty || savedAccessedTime != thisAccessedTime;
+        }
+
+        private void fromHeader(final String id, final long lastAccessedTime) {
+            this.id = id; // not setId() which would add it to the manager
+            setCreationTime(lastAccessedTime);
+            setValid(true);
+        }
+
+        private boolean hasAttributes() {
+            return !attributes.isEmpty();
+        }
+
+        private void markSaved() {
+            dirty = false;
+            savedAccessedTime = thisAccessedTime;
+        }
+
+        @Override
+        public void setAttribute(final String name, final Object value, final boolean notify) {
+            super.setAttribute(name, value, notify);
+            dirty = true;
+        }
+
+        @Override
+        public void removeAttribute(final String name, final boolean notify) {
+            super.removeAttribute(name, notify);
+            dirty = true;
+        }
+
+        @Override
+        public void setMaxInactiveInterval(final int interval) {
+            super.setMaxInactiveInterval(interval);
+            dirty = true;
+        }
+
+        @Override
+        public void setId(final String id, final boolean notify) {
+            super.setId(id, notify);
+            dirty = true;
+        }
+
+        @Override
+        public void endAccess() {
+            super.endAccess();
+            // only touched sessions are rewritten to keep their expiration right, at most twice per timeout,
+            // by the background process: the request thread only queues them
+            if (isValid() && (dirty || thisAccessedTime - savedAccessedTime > maxInactiveInterval * 500L) && queued.compareAndSet(false, true)) {
+                MicrowaveSessionManager.class.cast(manager).pendingSaves.add(this);
+            }
+        }
+    }
+
+    private static class EvictionEntry {
+        private final String id;
+        private final Session session;
+        private volatile long accessed = -1; // a new session always gets a second chance, even if used in the same ms
+
+        private EvictionEntry(final Session session) {
+            this.id = session.getIdInternal();
+            this.session = session;
+        }
+    }
+}
@@ -1,16 +1,22 @@
 package org.apache.microwave.tomcat;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.Loader;
 
 import java.beans.PropertyChangeListener;
+import java.util.logging.Logger;
 
 public class ProvidedLoader implements Loader {
-    private final ClassLoader delegate;
+    private static final Logger LOGGER = Logger.getLogger(ProvidedLoader.class.getName());
+
+    private final LookupCacheClassLoader delegate;
     private Context context;
 
     public ProvidedLoader(final ClassLoader loader) {
-        this.delegate = loader == null ? ClassLoader.getSystemClassLoader() : loader;
+        this.delegate = new LookupCacheClassLoader(loader == null ? ClassLoader.getSystemClassLoader() : loader);
     }
 
     @Override
@@ -19,7 +25,7 @@ public class ProvidedLoader implements Loader {
     }
 
     @Override
-    public ClassLoader getClassLoader() {
+    public LookupCacheClassLoader getClassLoader() {
         return delegate;
     }
 
@@ -30,7 +36,13 @@ public class ProvidedLoader implements Loader {
 
     @Override
     public void setContext(final Context context) {
+        if (this.context != null) {
+            this.context.removeLifecycleListener(ClearCacheOnStart.INSTANCE);
+        }
         this.context = context;
+        if (context != null) {
+            context.addLifecycleListener(ClearCacheOnStart.INSTANCE);
+        }
     }
 
     @Override
@@ -67,5 +79,23 @@ public class ProvidedLoader implements Loader {
     public void removePropertyChangeListener(final PropertyChangeListener listener) {
         // no-op
     }
-}
 
+    private static class ClearCacheOnStart implements LifecycleListener {
+        private static final ClearCacheOnStart INSTANCE = new ClearCacheOnStart();
+
+        @Override
+        public void lifecycleEvent(final LifecycleEvent event) {
+            if (!Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+                return;
+            }
+            final Context context = Context.class.cast(event.getLifecycle());
+            if (!ProvidedLoader.class.isInstance(context.getLoader())) {
+                return;
+            }
+            final LookupCacheClassLoader cache = ProvidedLoader.class.cast(context.getLoader()).getClassLoader();
+            LOGGER.info("Context '" + context.getName() + "' started with " + cache.getLookups()
+                    + " resource lookups, " + cache.getSavedLookups() + " served by the lookup cache");
+            cache.clear();
+        }
+    }
+}
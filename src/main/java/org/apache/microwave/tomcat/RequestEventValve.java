@@ -0,0 +1,27 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.apache.microwave.jfr.MicrowaveEvents;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+// emits a JFR request event (method, uri, status) around the request processing, a no-op when nothing records it
+public class RequestEventValve extends ValveBase {
+    public RequestEventValve() {
+        super(true);
+    }
+
+    @Override
+    public void invoke(final Request request, final Response response) throws IOException, ServletException {
+        final MicrowaveEvents.Span span = MicrowaveEvents.request(request.getMethod(), request.getRequestURI());
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            span.status(response.getStatus());
+            span.close();
+        }
+    }
+}
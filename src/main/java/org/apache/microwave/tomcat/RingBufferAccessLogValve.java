@@ -0,0 +1,311 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// request threads only copy references/primitives in preallocated slots,
+// formatting and (batched) writes are done by a dedicated thread.
+// When the buffer is full entries are dropped and counted instead of blocking requests.
+// An entry which can't be formatted is skipped (logged), lines longer than the write buffer are truncated.
+public class RingBufferAccessLogValve extends ValveBase implements AccessLog {
+    private static final String TRUNCATED = "...\n";
+
+    private File directory;
+    private String prefix = "access";
+    private int bufferSize = 8192;
+    private long maxFileSize = 100 * 1024 * 1024;
+    private long flushInterval = 100;
+    private boolean requestAttributesEnabled;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long tail;
+    private AtomicLongArray published;
+    private long[] timestamps;
+    private long[] durations;
+    private long[] bytes;
+    private int[] statuses;
+    private String[] remotes;
+    private String[] methods;
+    private String[] uris;
+    private String[] queries;
+    private String[] protocols;
+    private int mask;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public RingBufferAccessLogValve() {
+        super(true);
+    }
+
+    public void setDirectory(final File directory) {
+        this.directory = directory;
+    }
+
+    public void setPrefix(final String prefix) {
+        this.prefix = prefix;
+    }
+
+    public void setBufferSize(final int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setMaxFileSize(final long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setFlushInterval(final long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void setRequestAttributesEnabled(final boolean requestAttributesEnabled) {
+        this.requestAttributesEnabled = requestAttributesEnabled;
+    }
+
+    @Override
+    public boolean getRequestAttributesEnabled() {
+        return requestAttributesEnabled;
+    }
+
+    @Override
+    public void invoke(final Request request, final Response response) throws IOException, ServletException {
+        getNext().invoke(request, response);
+    }
+
+    @Override
+    public void log(final Request request, final Response response, final long time) {
+        if (!running) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= timestamps.length) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        final int slot = (int) (sequence & mask);
+        timestamps[slot] = request.getCoyoteRequest().getStartTime();
+        durations[slot] = time;
+        bytes[slot] = response.getBytesWritten(false);
+        statuses[slot] = response.getStatus();
+        remotes[slot] = request.getRemoteAddr();
+        methods[slot] = request.getMethod();
+        uris[slot] = request.getRequestURI();
+        queries[slot] = request.getQueryString();
+        protocols[slot] = request.getProtocol();
+        published.lazySet(slot, sequence);
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        final int size = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1; // next power of 2
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        timestamps = new long[size];
+        durations = new long[size];
+        bytes = new long[size];
+        statuses = new int[size];
+        remotes = new String[size];
+        methods = new String[size];
+        uris = new String[size];
+        queries = new String[size];
+        protocols = new String[size];
+
+        if (directory == null) {
+            directory = new File(System.getProperty("catalina.base", "."), "logs");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new LifecycleException("Can't create " + directory);
+        }
+
+        running = true;
+        writer = new Thread(new Writer(), "microwave-access-log");
+        writer.setDaemon(true);
+        writer.start();
+        super.startInternal();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        running = false;
+        try {
+            writer.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Writer implements Runnable {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        private final StringBuilder line = new StringBuilder(256);
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+        private final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+        private final Date date = new Date();
+        private long lastSecond = -1;
+        private String formattedDate;
+        private String day;
+        private FileChannel channel;
+        private long reportedDrops;
+
+        @Override
+        public void run() {
+            try {
+                while (running || tail < head.get()) {
+                    if (!drain()) {
+                        flush();
+                        if (running) {
+                            Thread.sleep(flushInterval);
+                        }
+                    }
+                }
+                flush();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final IOException e) {
+                containerLog.error("Access log writer failed", e);
+            } finally {
+                closeChannel();
+            }
+        }
+
+        private boolean drain() throws IOException {
+            long current = tail;
+            final long end = head.get();
+            boolean consumed = false;
+            while (current < end) {
+                final int slot = (int) (current & mask);
+                if (published.get(slot) != current) { // claimed but not yet written
+                    break;
+                }
+                try {
+                    format(slot);
+                } catch (final RuntimeException re) { // the writer must survive a bad entry
+                    containerLog.warn("Can't log access entry " + methods[slot] + " " + uris[slot], re);
+                }
+                remotes[slot] = methods[slot] = uris[slot] = queries[slot] = protocols[slot] = null;
+                current++;
+                tail = current;
+                consumed = true;
+            }
+            final long drops = dropped.get();
+            if (drops != reportedDrops) {
+                line.setLength(0);
+                line.append("# dropped ").append(drops - reportedDrops).append(" entries\n");
+                reportedDrops = drops;
+                write();
+            }
+            return consumed;
+        }
+
+        private void format(final int slot) throws IOException {
+            final long second = timestamps[slot] / 1000;
+            if (second != lastSecond) {
+                lastSecond = second;
+                date.setTime(timestamps[slot]);
+                formattedDate = dateFormat.format(date);
+                final String newDay = dayFormat.format(date);
+                if (!newDay.equals(day)) {
+                    flush();
+                    day = newDay;
+                    rotate();
+                }
+            }
+
+            line.setLength(0);
+            line.append(remotes[slot]).append(" - - [").append(formattedDate).append("] \"")
+                    .append(methods[slot]).append(' ').append(uris[slot]);
+            if (queries[slot] != null) {
+                line.append('?').append(queries[slot]);
+            }
+            line.append(' ').append(protocols[slot]).append("\" ")
+                    .append(statuses[slot]).append(' ').append(bytes[slot]).append(' ').append(durations[slot]).append('\n');
+            write();
+        }
+
+        private void write() throws IOException {
+            if (line.length() > buffer.capacity()) { // huge uri/query, keep the beginning of the line
+                line.setLength(buffer.capacity() - TRUNCATED.length());
+                line.append(TRUNCATED);
+            }
+            if (buffer.remaining() < line.length()) {
+                flush();
+            }
+            for (int i = 0; i < line.length(); i++) {
+                final char c = line.charAt(i);
+                buffer.put(c < 0x80 ? (byte) c : (byte) '?'); // access log values are ascii/escaped
+            }
+        }
+
+        private void flush() throws IOException {
+            if (buffer.position() == 0) {
+                return;
+            }
+            if (channel == null) {
+                rotate();
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            if (channel.size() > maxFileSize) {
+                rotate();
+            }
+        }
+
+        private void rotate() throws IOException {
+            closeChannel();
+            if (day == null) {
+                day = dayFormat.format(new Date());
+            }
+            File file = new File(directory, prefix + '.' + day + ".log");
+            int index = 1;
+            while (file.exists() && file.length() > maxFileSize) {
+                file = new File(directory, prefix + '.' + day + '.' + index++ + ".log");
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private void closeChannel() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                // no-op
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// watchdog for requests staying on a connector thread longer than threshold (ms):
+// request threads only register/unregister themselves, a sampler thread captures the stack of the slow ones
+// every sampleInterval (ms) and aggregates them per endpoint as collapsed stacks
+// (one "endpoint;frame;...;frame count" line per distinct stack, the format of flamegraph.pl).
+// the endpoint is the method and the first endpointPatterns template matching the uri ("/api/user/{id}", {...} matches
+// a segment), without match the uri where numeric and uuid segments become {id}. At most maxEndpoints are tracked,
+// next ones are merged in "(other endpoints)".
+// reports are written in directory every reportInterval (ms) and when the valve stops.
+// note: only the thread handling the request is sampled, work done by other threads (async) is not visible.
+public class SlowRequestValve extends ValveBase {
+    private static final String OTHER = "(other endpoints)";
+    private static final Pattern ID = Pattern.compile("\\d+|\\p{XDigit}{8}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{12}");
+    private static final Pattern VARIABLE = Pattern.compile("\\{[^}]*}");
+
+    private File directory;
+    private String prefix = "slow-requests";
+    private long threshold = 1000;
+    private long sampleInterval = 50;
+    private long reportInterval = 60000;
+    private int maxEndpoints = 100;
+    private final List<Template> templates = new ArrayList<>();
+
+    private final ConcurrentMap<Thread, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public SlowRequestValve() {
+        super(true);
+    }
+
+    public void setDirectory(final File directory) {
+        this.directory = directory;
+    }
+
+    public void setPrefix(final String prefix) {
+        this.prefix = prefix;
+    }
+
+    public void setThreshold(final long threshold) {
+        this.threshold = threshold;
+    }
+
+    public void setSampleInterval(final long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+    public void setReportInterval(final long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public void setMaxEndpoints(final int maxEndpoints) {
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    // comma separated
+    public void setEndpointPatterns(final String endpointPatterns) {
+        templates.clear();
+        for (final String template : endpointPatterns.split(",")) {
+            final String trimmed = template.trim();
+            if (!trimmed.isEmpty()) {
+                templates.add(new Template(trimmed));
+            }
+        }
+    }
+
+    @Override
+    public void invoke(final Request request, final Response response) throws IOException, ServletException {
+        final Thread thread = Thread.currentThread();
+        final InFlight current = new InFlight(request.getMethod(), request.getRequestURI());
+        final InFlight previous = inFlight.put(thread, current); // not null for nested invocations (forward to another host)
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            if (previous != null) {
+                inFlight.put(thread, previous);
+            } else {
+                inFlight.remove(thread);
+            }
+            final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - current.start);
+            if (duration >= threshold) {
+                endpoint(current.endpoint()).completed(duration);
+            }
+        }
+    }
+
+    // endpoint -> collapsed stack -> samples, for the samples since the last report
+    public Map<String, Map<String, Long>> getReport() {
+        final Map<String, Map<String, Long>> report = new TreeMap<>();
+        for (final Map.Entry<String, Endpoint> endpoint : endpoints.entrySet()) {
+            final Map<String, Long> stacks = new TreeMap<>();
+            for (final Map.Entry<String, LongAdder> stack : endpoint.getValue().stacks.entrySet()) {
+                stacks.put(stack.getKey(), stack.getValue().sum());
+            }
+            report.put(endpoint.getKey(), stacks);
+        }
+        return report;
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        if (directory == null) {
+            directory = new File(System.getProperty("catalina.base", "."), "logs");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new LifecycleException("Can't create " + directory);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "microwave-slow-request-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sample, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::report, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        super.startInternal();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report();
+    }
+
+    private void sample() {
+        final long now = System.nanoTime();
+        for (final Map.Entry<Thread, InFlight> entry : inFlight.entrySet()) {
+            final InFlight request = entry.getValue();
+            if (TimeUnit.NANOSECONDS.toMillis(now - request.start) < threshold) {
+                continue;
+            }
+            final StackTraceElement[] stack = entry.getKey().getStackTrace();
+            if (inFlight.get(entry.getKey()) != request) { // completed meanwhile, stack is unrelated
+                continue;
+            }
+            final String endpoint = request.endpoint();
+            endpoint(endpoint).sample(collapse(endpoint, stack));
+        }
+    }
+
+    private String collapse(final String endpoint, final StackTraceElement[] stack) {
+        int end = stack.length;
+        for (int i = 0; i < stack.length; i++) { // skip the connector part of the stack, common to all requests
+            if (getClass().getName().equals(stack[i].getClassName()) && "invoke".equals(stack[i].getMethodName())) {
+                end = i;
+                break;
+            }
+        }
+        final StringBuilder collapsed = new StringBuilder(endpoint.replace(';', ':'));
+        for (int i = end - 1; i >= 0; i--) {
+            collapsed.append(';').append(stack[i].getClassName()).append('.').append(stack[i].getMethodName());
+        }
+        return collapsed.toString();
+    }
+
+    private Endpoint endpoint(final String name) {
+        final Endpoint existing = endpoints.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (endpoints) { // the size check and the insertion must be atomic to respect maxEndpoints
+            final Endpoint created = endpoints.get(name);
+            if (created != null) {
+                return created;
+            }
+            return endpoints.computeIfAbsent(endpoints.size() >= maxEndpoints ? OTHER : name, k -> new Endpoint());
+        }
+    }
+
+    // only computed for slow requests
+    private String endpointName(final String method, final String uri) {
+        for (final Template template : templates) {
+            if (template.pattern.matcher(uri).matches()) {
+                return method + ' ' + template.value;
+            }
+        }
+        final StringBuilder name = new StringBuilder(method.length() + uri.length() + 1).append(method).append(' ');
+        int start = 0;
+        while (start <= uri.length()) {
+            int end = uri.indexOf('/', start);
+            if (end < 0) {
+                end = uri.length();
+            }
+            final String segment = uri.substring(start, end);
+            name.append(ID.matcher(segment).matches() ? "{id}" : segment);
+            if (end < uri.length()) {
+                name.append('/');
+            }
+            start = end + 1;
+        }
+        return name.toString();
+    }
+
+    private synchronized void report() {
+        if (endpoints.isEmpty()) {
+            return;
+        }
+        final Map<String, Endpoint> snapshot = new TreeMap<>(endpoints);
+        endpoints.keySet().removeAll(snapshot.keySet());
+
+        final StringBuilder summary = new StringBuilder("Slow requests (> ").append(threshold).append("ms):");
+        final File file = new File(directory, prefix + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ENGLISH).format(new Date()) + ".folded");
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, Endpoint> endpoint : snapshot.entrySet()) {
+                final Endpoint stats = endpoint.getValue();
+                summary.append("\n  ").append(endpoint.getKey()).append(": ").append(stats.count.get()).append(" requests, max ")
+                        .append(stats.max.get()).append("ms, ").append(stats.samples.sum()).append(" samples");
+                for (final Map.Entry<String, LongAdder> stack : stats.stacks.entrySet()) {
+                    writer.write(stack.getKey() + ' ' + stack.getValue().sum() + '\n');
+                }
+            }
+        } catch (final IOException e) {
+            containerLog.error("Can't write " + file, e);
+            return;
+        }
+        containerLog.warn(summary.append("\n  stacks: ").append(file.getAbsolutePath()));
+    }
+
+    private class InFlight {
+        private final long start = System.nanoTime();
+        private final String method;
+        private final String uri;
+        private volatile String endpoint;
+
+        private InFlight(final String method, final String uri) {
+            this.method = method;
+            this.uri = uri;
+        }
+
+        private String endpoint() {
+            String current = endpoint;
+            if (current == null) { // the sampler and the request thread can both compute it, same result
+                current = endpointName(method, uri);
+                endpoint = current;
+            }
+            return current;
+        }
+    }
+
+    private static class Template {
+        private final String value;
+        private final Pattern pattern;
+
+        private Template(final String value) {
+            this.value = value;
+            final StringBuilder regex = new StringBuilder();
+            final Matcher variables = VARIABLE.matcher(value);
+            int last = 0;
+            while (variables.find()) {
+                regex.append(Pattern.quote(value.substring(last, variables.start()))).append("[^/]+");
+                last = variables.end();
+            }
+            this.pattern = Pattern.compile(regex.append(Pattern.quote(value.substring(last))).toString());
+        }
+    }
+
+    private static class Endpoint {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final LongAdder samples = new LongAdder();
+        private final ConcurrentMap<String, LongAdder> stacks = new ConcurrentHashMap<>();
+
+        private void completed(final long duration) {
+            count.incrementAndGet();
+            max.accumulateAndGet(duration, Math::max);
+        }
+
+        private void sample(final String stack) {
+            samples.increment();
+            stacks.computeIfAbsent(stack, k -> new LongAdder()).increment();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.apache.microwave.tomcat;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+// tomcat 8.5.6 creates the h2c stream 1 from a copy of the HTTP/1.1 request which asked for the upgrade, without any
+// input buffer (pushed streams neither): ServletInputStream.available() then throws a NullPointerException (CXF calls it
+// to cache the input) and the response is an empty 200. Tomcat never reads the body of these requests so it is empty.
+public class UpgradedStreamValve extends ValveBase {
+    public UpgradedStreamValve() {
+        super(true);
+    }
+
+    @Override
+    public void invoke(final Request request, final Response response) throws IOException, ServletException {
+        if ("HTTP/2.0".equals(request.getProtocol()) && request.getCoyoteRequest().getInputBuffer() == null) {
+            request.setRequest(new EmptyBodyRequest(request.getRequest()));
+        }
+        getNext().invoke(request, response);
+    }
+
+    private static class EmptyBodyRequest extends HttpServletRequestWrapper {
+        private EmptyBodyRequest(final HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return true;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(final ReadListener listener) {
+                    try {
+                        listener.onAllDataRead();
+                    } catch (final IOException e) {
+                        listener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return -1;
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new StringReader(""));
+        }
+    }
+}
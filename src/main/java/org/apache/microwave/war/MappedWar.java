@@ -0,0 +1,211 @@
+package org.apache.microwave.war;
+
+import org.apache.catalina.webresources.TomcatURLStreamHandlerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.unmodifiableCollection;
+
+// a WAR served in place: the archive is mapped and indexed, its WEB-INF/lib jars are indexed in parallel
+// (stored ones are read in place, deflated ones are inflated in memory). Entries are addressed with
+// mwar://<id>/<war path>!/<entry> and mwar://<id>/<war path>!/WEB-INF/lib/<jar>!/<entry> URLs resolved
+// against the opened wars, a jar: URL on a nested jar would extract it in a temporary file.
+public class MappedWar implements AutoCloseable {
+    public static final String PROTOCOL = "mwar";
+    public static final URLStreamHandler HANDLER = new Handler();
+
+    private static final String SEPARATOR = "!/";
+    private static final String LIB = "WEB-INF/lib/";
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final ConcurrentMap<String, MappedWar> OPENED = new ConcurrentHashMap<>();
+
+    static { // for the code building URLs from strings (new URL(url.toExternalForm() + "..."))
+        TomcatURLStreamHandlerFactory.getInstance().addUserFactory(protocol -> PROTOCOL.equals(protocol) ? HANDLER : null);
+    }
+
+    private final String id = Long.toString(IDS.incrementAndGet());
+    private final File file;
+    private final String path;
+    private final MappedZip zip;
+    private final Map<String, CompletableFuture<MappedZip>> libs = new HashMap<>();
+
+    private MappedWar(final File file, final MappedZip zip) {
+        this.file = file;
+        this.path = file.getAbsoluteFile().toURI().getRawPath();
+        this.zip = zip;
+    }
+
+    public static MappedWar open(final File file, final long cacheSize, final int maxCachedEntrySize, final Executor executor) throws IOException {
+        final MappedWar war = new MappedWar(file, MappedZip.map(file, cacheSize, maxCachedEntrySize));
+        for (final MappedZip.Entry entry : war.zip.getEntries()) {
+            final String name = entry.getName();
+            if (name.startsWith(LIB) && name.endsWith(".jar") && name.indexOf('/', LIB.length()) < 0) {
+                war.libs.put(name, CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return war.zip.nested(entry);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException("Can't index " + name + " in " + file, e);
+                    }
+                }, executor));
+            }
+        }
+        OPENED.put(war.id, war);
+        return war;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public MappedZip getZip() {
+        return zip;
+    }
+
+    // entry names of the nested jars
+    public Collection<String> getLibs() {
+        return unmodifiableCollection(libs.keySet());
+    }
+
+    public MappedZip getLib(final String name) throws IOException {
+        final CompletableFuture<MappedZip> lib = libs.get(name);
+        if (lib == null) {
+            return null;
+        }
+        try {
+            return lib.join();
+        } catch (final CompletionException e) {
+            if (UncheckedIOException.class.isInstance(e.getCause())) {
+                throw UncheckedIOException.class.cast(e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // lib == null means an entry of the war itself
+    public URL url(final String lib, final String entry) {
+        try {
+            return new URL(PROTOCOL, id, -1, path + SEPARATOR + (lib == null ? "" : lib + SEPARATOR) + entry, HANDLER);
+        } catch (final MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        OPENED.remove(id);
+    }
+
+    // the archive and entry (or folder prefix) a mwar URL points to, null if the war is no more opened
+    public static Location locate(final URL url) throws IOException {
+        final MappedWar war = OPENED.get(url.getHost());
+        if (war == null) {
+            return null;
+        }
+        final String file = url.getPath();
+        final int separator = file.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return new Location(war.zip, "");
+        }
+        final String entry = file.substring(separator + SEPARATOR.length());
+        final int nested = entry.indexOf(SEPARATOR);
+        if (nested >= 0) {
+            final MappedZip lib = war.getLib(entry.substring(0, nested));
+            return lib == null ? null : new Location(lib, entry.substring(nested + SEPARATOR.length()));
+        }
+        if (war.libs.containsKey(entry)) { // the jar itself as an archive (class loader URLs)
+            return new Location(war.getLib(entry), "");
+        }
+        return new Location(war.zip, entry);
+    }
+
+    public static final class Location {
+        private final MappedZip zip;
+        private final String entry;
+
+        private Location(final MappedZip zip, final String entry) {
+            this.zip = zip;
+            this.entry = entry;
+        }
+
+        public MappedZip getZip() {
+            return zip;
+        }
+
+        public String getEntry() {
+            return entry;
+        }
+    }
+
+    private static final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(final URL url) {
+            return new URLConnection(url) {
+                private MappedZip zip;
+                private MappedZip.Entry entry;
+
+                @Override
+                public void connect() throws IOException {
+                    if (connected) {
+                        return;
+                    }
+                    final Location location = locate(url);
+                    entry = location == null ? null : location.zip.getEntry(location.entry);
+                    if (entry == null) {
+                        throw new FileNotFoundException(url.toExternalForm());
+                    }
+                    zip = location.zip;
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    connect();
+                    return zip.open(entry);
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    try {
+                        connect();
+                        return entry.getSize();
+                    } catch (final IOException e) {
+                        return -1;
+                    }
+                }
+
+                @Override
+                public long getLastModified() {
+                    try {
+                        connect();
+                        return entry.getTime();
+                    } catch (final IOException e) {
+                        return 0;
+                    }
+                }
+            };
+        }
+
+        @Override
+        protected InetAddress getHostAddress(final URL url) { // the host is a war id, never resolve it
+            return null;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package org.apache.microwave.war;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static java.util.Collections.unmodifiableCollection;
+
+// read only zip over a buffer (a memory mapped file or a nested archive): the central directory is indexed once
+// and entries are read straight from the buffer, stored ones without any copy and deflated ones without any lock
+// so parallel reads (class loading, scanning) don't serialize on the archive like with ZipFile.
+// Entries inflated more than once ("hot") are cached, bounded to cacheSize bytes and maxCachedEntrySize per entry.
+// zip64 and encrypted entries are not supported.
+public class MappedZip {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>(); // native zlib streams are costly to create
+
+    private final ByteBuffer buffer; // never read directly, duplicate() it, positions are not thread safe
+    private final Map<String, Entry> entries;
+    private final long cacheSize;
+    private final int maxCachedEntrySize;
+    private final ConcurrentMap<Entry, byte[]> cache = new ConcurrentHashMap<>();
+    private final AtomicLong cached = new AtomicLong();
+
+    public MappedZip(final ByteBuffer buffer, final long cacheSize, final int maxCachedEntrySize) throws IOException {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.cacheSize = cacheSize;
+        this.maxCachedEntrySize = maxCachedEntrySize;
+        this.entries = index();
+    }
+
+    // the mapping stays valid once the channel is closed and doesn't hold any file descriptor
+    public static MappedZip map(final File file, final long cacheSize, final int maxCachedEntrySize) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is bigger than 2GB, it can't be mapped");
+            }
+            return new MappedZip(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), cacheSize, maxCachedEntrySize);
+        }
+    }
+
+    public Entry getEntry(final String name) {
+        return entries.get(name);
+    }
+
+    public Collection<Entry> getEntries() {
+        return unmodifiableCollection(entries.values());
+    }
+
+    public long getCachedBytes() {
+        return cached.get();
+    }
+
+    public Manifest getManifest() throws IOException {
+        final Entry entry = entries.get("META-INF/MANIFEST.MF");
+        if (entry == null) {
+            return null;
+        }
+        try (final InputStream stream = open(entry)) {
+            return new Manifest(stream);
+        }
+    }
+
+    public byte[] read(final Entry entry) throws IOException {
+        if (entry.isDirectory()) {
+            return new byte[0];
+        }
+        final byte[] cachedContent = cache.get(entry);
+        if (cachedContent != null) {
+            return cachedContent;
+        }
+        final ByteBuffer data = data(entry);
+        final byte[] content;
+        if (entry.method == Entry.STORED) {
+            content = new byte[data.remaining()];
+            data.get(content);
+            return content; // a copy of the mapped memory is as cheap as a cache lookup
+        }
+        content = inflate(entry, data);
+        if (++entry.reads > 1 && content.length <= maxCachedEntrySize) { // racy counter, a missed increment only delays caching
+            if (cached.addAndGet(content.length) > cacheSize || cache.putIfAbsent(entry, content) != null) {
+                cached.addAndGet(-content.length);
+            }
+        }
+        return content;
+    }
+
+    // big deflated entries are streamed instead of being inflated in memory
+    public InputStream open(final Entry entry) throws IOException {
+        if (entry.isDirectory()) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        if (entry.method == Entry.STORED) {
+            return new BufferInputStream(data(entry), false);
+        }
+        if (entry.size <= maxCachedEntrySize || cache.containsKey(entry)) {
+            return new ByteArrayInputStream(read(entry));
+        }
+        final Inflater inflater = inflater();
+        return new InflaterInputStream(new BufferInputStream(data(entry), true), inflater, 8192) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    super.close();
+                    release(inflater);
+                }
+            }
+        };
+    }
+
+    // stored nested archives are a view of this one, deflated ones are inflated off heap (never on disk)
+    public MappedZip nested(final Entry entry) throws IOException {
+        if (entry.method == Entry.STORED) {
+            return new MappedZip(data(entry), cacheSize, maxCachedEntrySize);
+        }
+        if (entry.method != Entry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+        final ByteBuffer inflated = ByteBuffer.allocateDirect(entry.size);
+        final Inflater inflater = inflater();
+        try (final InputStream stream = new InflaterInputStream(new BufferInputStream(data(entry), true), inflater, 8192)) {
+            final byte[] chunk = new byte[64 * 1024];
+            int read;
+            while (inflated.hasRemaining() && (read = stream.read(chunk, 0, Math.min(chunk.length, inflated.remaining()))) > 0) {
+                inflated.put(chunk, 0, read);
+            }
+        } finally {
+            release(inflater);
+        }
+        if (inflated.hasRemaining()) {
+            throw new ZipException("Truncated entry " + entry.name + ": " + inflated.position() + "/" + entry.size + " bytes");
+        }
+        inflated.flip();
+        return new MappedZip(inflated, cacheSize, maxCachedEntrySize);
+    }
+
+    private ByteBuffer data(final Entry entry) throws IOException {
+        final ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (view.getInt(entry.localHeader) != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header for " + entry.name);
+        }
+        final int start = entry.localHeader + 30 + (view.getShort(entry.localHeader + 26) & 0xFFFF) + (view.getShort(entry.localHeader + 28) & 0xFFFF);
+        view.limit(start + entry.compressedSize).position(start);
+        return view.slice();
+    }
+
+    private static byte[] inflate(final Entry entry, final ByteBuffer data) throws IOException {
+        if (entry.method != Entry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+        final byte[] input = new byte[data.remaining() + 1]; // + the dummy byte a nowrap inflater can need
+        data.get(input, 0, input.length - 1);
+        final byte[] output = new byte[entry.size];
+        final Inflater inflater = inflater();
+        try {
+            inflater.setInput(input);
+            int position = 0;
+            while (position < output.length && !inflater.finished()) {
+                final int read = inflater.inflate(output, position, output.length - position);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += read;
+            }
+            if (position != output.length) {
+                throw new ZipException("Truncated entry " + entry.name + ": " + position + "/" + output.length + " bytes");
+            }
+            return output;
+        } catch (final DataFormatException e) {
+            throw new ZipException("Invalid deflated entry " + entry.name + ": " + e.getMessage());
+        } finally {
+            release(inflater);
+        }
+    }
+
+    private static Inflater inflater() {
+        final Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    private static void release(final Inflater inflater) {
+        inflater.reset();
+        INFLATERS.offer(inflater);
+    }
+
+    private Map<String, Entry> index() throws IOException {
+        final ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int end = -1; // the end record is followed by a comment of at most 64k
+        for (int i = view.limit() - 22; i >= Math.max(0, view.limit() - 22 - 0xFFFF); i--) {
+            if (view.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("Not a zip archive, no end of central directory");
+        }
+        final int count = view.getShort(end + 10) & 0xFFFF;
+        final long offset = view.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new ZipException("zip64 archives are not supported");
+        }
+
+        final Map<String, Entry> index = new HashMap<>(count * 4 / 3 + 1);
+        int position = (int) offset;
+        final byte[] nameBytes = new byte[0xFFFF];
+        for (int i = 0; i < count; i++) {
+            if (position + 46 > view.limit() || view.getInt(position) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory entry #" + i);
+            }
+            if ((view.getShort(position + 8) & 1) != 0) {
+                throw new ZipException("Encrypted entries are not supported");
+            }
+            final int nameLength = view.getShort(position + 28) & 0xFFFF;
+            view.position(position + 46);
+            view.get(nameBytes, 0, nameLength);
+            final String name = new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8);
+            index.put(name, new Entry(
+                    name, view.getShort(position + 10) & 0xFFFF,
+                    toInt(view.getInt(position + 20), name), toInt(view.getInt(position + 24), name), toInt(view.getInt(position + 42), name),
+                    dosToJavaTime(view.getInt(position + 12))));
+            position += 46 + nameLength + (view.getShort(position + 30) & 0xFFFF) + (view.getShort(position + 32) & 0xFFFF);
+        }
+
+        // parent folders are often not listed in the central directory, resources need them
+        for (final Entry entry : new ArrayList<>(index.values())) {
+            int slash = entry.name.lastIndexOf('/', entry.name.length() - 2);
+            while (slash > 0) {
+                final String folder = entry.name.substring(0, slash + 1);
+                index.putIfAbsent(folder, new Entry(folder, Entry.STORED, 0, 0, -1, entry.time));
+                slash = entry.name.lastIndexOf('/', slash - 1);
+            }
+        }
+        return index;
+    }
+
+    private static int toInt(final int unsigned, final String name) throws ZipException {
+        if (unsigned < 0) { // > 2GB, zip64 territory
+            throw new ZipException("Entry " + name + " is too big");
+        }
+        return unsigned;
+    }
+
+    private static long dosToJavaTime(final int dos) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((dos >> 25) & 0x7f) + 1980, ((dos >> 21) & 0x0f) - 1, (dos >> 16) & 0x1f,
+                (dos >> 11) & 0x1f, (dos >> 5) & 0x3f, (dos << 1) & 0x3e);
+        return calendar.getTimeInMillis();
+    }
+
+    public static final class Entry {
+        private static final int STORED = 0;
+        private static final int DEFLATED = 8;
+
+        private final String name;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeader; // -1 for the folders we added
+        private final long time;
+        private int reads;
+
+        private Entry(final String name, final int method, final int compressedSize, final int size, final int localHeader, final long time) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeader = localHeader;
+            this.time = time;
+        }
+
+        // an entry for the root of the archive, it is never listed
+        public static Entry root(final long time) {
+            return new Entry("", STORED, 0, 0, -1, time);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public boolean isDirectory() {
+            return name.isEmpty() || name.charAt(name.length() - 1) == '/';
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private boolean dummyByte; // nowrap inflaters can need one more byte than the deflated data
+
+        private BufferInputStream(final ByteBuffer buffer, final boolean dummyByte) {
+            this.buffer = buffer;
+            this.dummyByte = dummyByte;
+        }
+
+        @Override
+        public int read() {
+            if (buffer.hasRemaining()) {
+                return buffer.get() & 0xFF;
+            }
+            if (dummyByte) {
+                dummyByte = false;
+                return 0;
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                final int value = read();
+                if (value < 0) {
+                    return -1;
+                }
+                bytes[offset] = (byte) value;
+                return 1;
+            }
+            final int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.apache.microwave.websocket;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.io.IOException;
+
+// coalesces the writes of small text messages with the container batching (RemoteEndpoint#setBatchingAllowed):
+// each message keeps its own frame but frames are buffered and written together when the container buffer is full,
+// maxMessages is reached or flush() is called. close() flushes and restores the unbatched mode of the session.
+public class BatchingSender implements AutoCloseable {
+    private final RemoteEndpoint.Basic remote;
+    private final int maxMessages;
+    private int messages;
+
+    public BatchingSender(final Session session) throws IOException {
+        this(session, 64);
+    }
+
+    public BatchingSender(final Session session, final int maxMessages) throws IOException {
+        this.remote = session.getBasicRemote();
+        this.maxMessages = maxMessages;
+        this.remote.setBatchingAllowed(true);
+    }
+
+    public synchronized BatchingSender send(final String message) throws IOException {
+        remote.sendText(message);
+        messages++;
+        if (messages >= maxMessages) {
+            flush();
+        }
+        return this;
+    }
+
+    public synchronized void flush() throws IOException {
+        if (messages == 0) {
+            return;
+        }
+        messages = 0;
+        remote.flushBatch();
+    }
+
+    public synchronized int pending() {
+        return messages;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        messages = 0;
+        remote.setBatchingAllowed(false); // flushes the batch
+    }
+}
@@ -0,0 +1,131 @@
+package org.apache.microwave.websocket;
+
+import org.apache.tomcat.websocket.pojo.PojoEndpointBase;
+import org.apache.tomcat.websocket.pojo.PojoMethodMapping;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.InjectionTarget;
+import javax.websocket.CloseReason;
+import javax.websocket.Decoder;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpointConfig;
+import java.util.List;
+import java.util.Set;
+
+// one per @ServerEndpoint class, deployed as a CdiEndpoint: the annotated methods are dispatched by tomcat
+// (PojoEndpointBase) on an instance created through CDI and released (@PreDestroy, dependent objects) when the session closes
+public class CdiEndpointConfigurator extends ServerEndpointConfig.Configurator {
+    private final BeanManager beanManager;
+    private final Class<?> endpoint;
+    private final PojoMethodMapping methodMapping;
+
+    public CdiEndpointConfigurator(final BeanManager beanManager, final Class<?> endpoint, final String path,
+                                   final List<Class<? extends Decoder>> decoders) throws DeploymentException {
+        this.beanManager = beanManager;
+        this.endpoint = endpoint;
+        this.methodMapping = new PojoMethodMapping(endpoint, decoders, path);
+    }
+
+    @Override
+    public <T> T getEndpointInstance(final Class<T> clazz) {
+        return clazz.cast(new CdiEndpoint());
+    }
+
+    private Instance create() throws InstantiationException {
+        final Set<Bean<?>> beans = beanManager.getBeans(endpoint);
+        if (!beans.isEmpty()) {
+            final Bean<?> bean = beanManager.resolve(beans);
+            final CreationalContext<?> creationalContext = beanManager.createCreationalContext(bean);
+            return new Instance(beanManager.getReference(bean, endpoint, creationalContext), creationalContext::release);
+        }
+
+        // not a bean (excluded from scanning for instance), still honor injections
+        try {
+            return createNonBean(beanManager.createInjectionTarget(beanManager.createAnnotatedType(endpoint)));
+        } catch (final RuntimeException re) {
+            final InstantiationException ie = new InstantiationException(re.getMessage());
+            ie.initCause(re);
+            throw ie;
+        }
+    }
+
+    private <T> Instance createNonBean(final InjectionTarget<T> target) {
+        final CreationalContext<T> creationalContext = beanManager.createCreationalContext(null);
+        final T instance = target.produce(creationalContext);
+        target.inject(instance, creationalContext);
+        target.postConstruct(instance);
+        return new Instance(instance, () -> {
+            try {
+                target.preDestroy(instance);
+                target.dispose(instance);
+            } finally {
+                creationalContext.release();
+            }
+        });
+    }
+
+    private static class Instance {
+        private final Object value;
+        private final Runnable release;
+
+        private Instance(final Object value, final Runnable release) {
+            this.value = value;
+            this.release = release;
+        }
+    }
+
+    class CdiEndpoint extends Endpoint { // the class registered in the container, instances come from getEndpointInstance()
+        private final Pojo pojo = new Pojo();
+        private volatile Runnable release;
+
+        @Override
+        public void onOpen(final Session session, final EndpointConfig config) {
+            final Instance instance;
+            try {
+                instance = create();
+            } catch (final InstantiationException e) {
+                throw new IllegalArgumentException("Can't create " + endpoint.getName(), e);
+            }
+            release = instance.release; // before @OnOpen which can close the session
+            pojo.open(session, config, instance.value, methodMapping);
+        }
+
+        @Override
+        public void onClose(final Session session, final CloseReason closeReason) {
+            try {
+                pojo.onClose(session, closeReason);
+            } finally {
+                final Runnable current = release;
+                if (current != null) {
+                    release = null;
+                    current.run();
+                }
+            }
+        }
+
+        @Override
+        public void onError(final Session session, final Throwable throwable) {
+            pojo.onError(session, throwable);
+        }
+
+        // tomcat dispatching of the annotated methods, its onClose() is final hence the delegation
+        private class Pojo extends PojoEndpointBase {
+            private void open(final Session session, final EndpointConfig config, final Object instance, final PojoMethodMapping mapping) {
+                setPojo(instance);
+                setPathParameters(session.getPathParameters());
+                setMethodMapping(mapping);
+                doOnOpen(session, config);
+            }
+
+            @Override
+            public void onOpen(final Session session, final EndpointConfig config) {
+                throw new UnsupportedOperationException("opened by CdiEndpoint");
+            }
+        }
+    }
+}
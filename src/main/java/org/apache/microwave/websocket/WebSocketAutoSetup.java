@@ -0,0 +1,75 @@
+package org.apache.microwave.websocket;
+
+import org.apache.microwave.Microwave;
+import org.apache.microwave.openwebbeans.LazyWebBeansListener;
+import org.apache.tomcat.websocket.server.Constants;
+import org.apache.tomcat.websocket.server.WsSci;
+import org.apache.webbeans.config.WebBeansContext;
+
+import javax.enterprise.inject.spi.BeanManager;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
+import javax.websocket.DeploymentException;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpoint;
+import javax.websocket.server.ServerEndpointConfig;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+
+public class WebSocketAutoSetup implements ServletContainerInitializer {
+    @Override
+    public void onStartup(final Set<Class<?>> c, final ServletContext ctx) throws ServletException {
+        final Microwave.Builder builder = Microwave.Builder.class.cast(ctx.getAttribute("microwave.configuration"));
+        if (!builder.websocket()) {
+            return;
+        }
+
+        new WsSci().onStartup(emptySet(), ctx); // only creates the container, endpoints are deployed when CDI is there
+        final LazyWebBeansListener lazy = LazyWebBeansListener.class.cast(ctx.getAttribute(LazyWebBeansListener.ATTRIBUTE));
+        if (lazy != null) {
+            lazy.onInit(() -> deployEndpoints(ctx));
+            return;
+        }
+        ctx.addListener(new ServletContextListener() { // registered after OWB one so CDI is started
+            @Override
+            public void contextInitialized(final ServletContextEvent sce) {
+                deployEndpoints(sce.getServletContext());
+            }
+
+            @Override
+            public void contextDestroyed(final ServletContextEvent sce) {
+                // no-op
+            }
+        });
+    }
+
+    private static void deployEndpoints(final ServletContext context) {
+        final ServerContainer container = ServerContainer.class.cast(context.getAttribute(Constants.SERVER_CONTAINER_SERVLET_CONTEXT_ATTRIBUTE));
+        final BeanManager beanManager = WebBeansContext.currentInstance().getBeanManagerImpl();
+        final WebSocketExtension extension = beanManager.getExtension(WebSocketExtension.class);
+        for (final Class<?> endpoint : extension.getEndpoints()) {
+            final ServerEndpoint annotation = endpoint.getAnnotation(ServerEndpoint.class);
+            try {
+                if (annotation.configurator() != ServerEndpointConfig.Configurator.class) { // custom configurator, let it create instances
+                    container.addEndpoint(endpoint);
+                    continue;
+                }
+                final CdiEndpointConfigurator configurator = new CdiEndpointConfigurator(
+                        beanManager, endpoint, annotation.value(), asList(annotation.decoders()));
+                container.addEndpoint(ServerEndpointConfig.Builder.create(CdiEndpointConfigurator.CdiEndpoint.class, annotation.value())
+                        .decoders(asList(annotation.decoders()))
+                        .encoders(asList(annotation.encoders()))
+                        .subprotocols(asList(annotation.subprotocols()))
+                        .configurator(configurator)
+                        .build());
+            } catch (final DeploymentException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.apache.microwave.websocket;
+
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.Extension;
+import javax.enterprise.inject.spi.ProcessAnnotatedType;
+import javax.enterprise.inject.spi.WithAnnotations;
+import javax.websocket.server.ServerEndpoint;
+import java.util.Collection;
+import java.util.HashSet;
+
+// collects @ServerEndpoint since we don't rely on tomcat scanning to find them,
+// note it means endpoints must be discovered by CDI (a scope is needed in implicit bean archives)
+public class WebSocketExtension implements Extension {
+    private final Collection<Class<?>> endpoints = new HashSet<>();
+
+    void collect(@Observes @WithAnnotations(ServerEndpoint.class) final ProcessAnnotatedType<?> pat) {
+        endpoints.add(pat.getAnnotatedType().getJavaClass());
+    }
+
+    public Collection<Class<?>> getEndpoints() {
+        return endpoints;
+    }
+}
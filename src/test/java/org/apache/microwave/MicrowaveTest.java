@@ -1,21 +1,136 @@
 package org.apache.microwave;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.catalina.Context;
+import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.catalina.startup.Tomcat;
 import org.apache.commons.io.IOUtils;
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.endpoint.Server;
 import org.apache.cxf.helpers.FileUtils;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.microwave.app.EchoSocket;
 import org.apache.microwave.app.Endpoint;
+import org.apache.microwave.app.Endpoint.Simple;
 import org.apache.microwave.app.RsApp;
+import org.apache.microwave.cbor.CborFactory;
+import org.apache.microwave.cbor.CborProvider;
+import org.apache.microwave.event.AsyncEventBus;
+import org.apache.microwave.jfr.MicrowaveEvents;
+import org.apache.microwave.openwebbeans.LazyWebBeansListener;
+import org.apache.microwave.tomcat.AdaptiveExecutor;
+import org.apache.microwave.tomcat.InProcessResponse;
+import org.apache.microwave.tomcat.LookupCacheClassLoader;
+import org.apache.microwave.tomcat.MappedSessionStore;
+import org.apache.microwave.tomcat.MappedWarRoot;
+import org.apache.microwave.tomcat.ProvidedLoader;
+import org.apache.microwave.war.MappedWar;
 import org.junit.Test;
 
+import javax.enterprise.inject.Vetoed;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DeploymentException;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 public class MicrowaveTest {
     @Test
@@ -41,6 +156,76 @@ public class MicrowaveTest {
         }
     }
 
+    @Test
+    public void mappedWar() throws Exception {
+        final File war = new File("target/MicrowaveTest/mappedWar/app.war");
+        FileUtils.mkDir(war.getParentFile());
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream(); // read in place from the war
+        try (final JarOutputStream jar = new JarOutputStream(stored)) {
+            addClass(jar, "", RsApp.class);
+            addEntry(jar, "META-INF/beans.xml", "");
+            addEntry(jar, "stored.txt", "from a stored jar");
+        }
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream(); // inflated in memory
+        try (final JarOutputStream jar = new JarOutputStream(deflated)) {
+            addEntry(jar, "deflated.txt", "from a deflated jar");
+        }
+        try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(war))) {
+            addClass(out, "WEB-INF/classes/", Endpoint.class);
+            addClass(out, "WEB-INF/classes/", EchoSocket.class);
+            addEntry(out, "index.txt", "root resource");
+            final JarEntry storedJar = new JarEntry("WEB-INF/lib/stored.jar");
+            final CRC32 crc = new CRC32();
+            crc.update(stored.toByteArray());
+            storedJar.setMethod(ZipEntry.STORED);
+            storedJar.setSize(stored.size());
+            storedJar.setCrc(crc.getValue());
+            out.putNextEntry(storedJar);
+            out.write(stored.toByteArray());
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("WEB-INF/lib/deflated.jar"));
+            out.write(deflated.toByteArray());
+            out.closeEntry();
+        }
+
+        final AtomicReference<Context> context = new AtomicReference<>();
+        final URL storedResource;
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().mappedWars(true)).start()) {
+            microwave.deployWebapp("", war, context::set);
+            assertEquals("simple", IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test")));
+
+            assertTrue(MappedWarRoot.class.isInstance(context.get().getResources()));
+            try (final InputStream index = context.get().getServletContext().getResourceAsStream("/index.txt")) {
+                assertEquals("root resource", IOUtils.toString(index, StandardCharsets.UTF_8));
+            }
+            final ClassLoader loader = context.get().getLoader().getClassLoader();
+            storedResource = loader.getResource("stored.txt");
+            assertEquals(MappedWar.PROTOCOL, storedResource.getProtocol());
+            assertEquals("from a stored jar", IOUtils.toString(storedResource, StandardCharsets.UTF_8));
+            assertEquals("from a deflated jar", IOUtils.toString(loader.getResource("deflated.txt"), StandardCharsets.UTF_8));
+
+            final Class<?> app = loader.loadClass(RsApp.class.getName());
+            assertSame(loader, app.getClassLoader());
+            assertTrue(app.getProtectionDomain().getCodeSource().getLocation().toExternalForm().endsWith("!/WEB-INF/lib/stored.jar"));
+        }
+        assertNull(MappedWar.locate(storedResource)); // unmapped with the context
+    }
+
+    private static void addClass(final JarOutputStream jar, final String prefix, final Class<?> type) throws IOException {
+        final String name = type.getName().replace('.', '/') + ".class";
+        jar.putNextEntry(new JarEntry(prefix + name));
+        try (final InputStream from = Thread.currentThread().getContextClassLoader().getResourceAsStream(name)) {
+            IOUtils.copy(from, jar);
+        }
+        jar.closeEntry();
+    }
+
+    private static void addEntry(final JarOutputStream jar, final String name, final String content) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(content.getBytes(StandardCharsets.UTF_8));
+        jar.closeEntry();
+    }
+
     @Test
     public void classpath() {
         try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort()).bake()) {
@@ -58,4 +243,1063 @@ public class MicrowaveTest {
             fail(e.getMessage());
         }
     }
+
+    @Test
+    public void websocket() throws Exception {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().websocket(true)).bake()) {
+            final int destroyed = EchoSocket.DESTROYED.get();
+            final BlockingQueue<String> messages = new ArrayBlockingQueue<>(4);
+            final Session session = ContainerProvider.getWebSocketContainer().connectToServer(new javax.websocket.Endpoint() {
+                @Override
+                public void onOpen(final Session session, final EndpointConfig config) {
+                    session.addMessageHandler(new MessageHandler.Whole<String>() {
+                        @Override
+                        public void onMessage(final String message) {
+                            messages.add(message);
+                        }
+                    });
+                }
+            }, ClientEndpointConfig.Builder.create().build(), new URI("ws://localhost:" + microwave.getConfiguration().httpPort() + "/echo"));
+            try {
+                session.getBasicRemote().sendText("a,b,c");
+                assertEquals("simple:a", messages.poll(1, TimeUnit.MINUTES)); // batched but one frame per message
+                assertEquals("simple:b", messages.poll(1, TimeUnit.MINUTES));
+                assertEquals("simple:c", messages.poll(1, TimeUnit.MINUTES));
+            } finally {
+                session.close();
+            }
+            final long end = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+            while (EchoSocket.DESTROYED.get() == destroyed && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertEquals(destroyed + 1, EchoSocket.DESTROYED.get()); // the @Dependent endpoint is released with the session
+        } catch (final IOException | DeploymentException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void client() throws IOException {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().property("client.maxConnectionsPerHost", "4")).bake()) {
+            assertEquals("simple:1", IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/client")));
+        }
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().property("client.keepAlive", "false")).bake()) {
+            assertEquals("close", IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/client/connection")));
+        }
+    }
+
+    @Test
+    public void clientBenchmark() throws IOException { // -Dmicrowave.benchmark.calls=10000 for meaningful numbers
+        final int calls = Integer.getInteger("microwave.benchmark.calls", 200);
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().property("client.maxConnectionsPerHost", "4")).bake();
+             final JsonReader reader = Json.createReader(new URL("http://localhost:" + microwave.getConfiguration().httpPort()
+                     + "/api/benchmark/client?threads=4&calls=" + calls).openStream())) {
+            final JsonObject result = reader.readObject();
+            System.out.println("Client benchmark: " + result);
+            assertEquals(calls, result.getInt("pooledCalls"));
+        }
+    }
+
+    @Test
+    public void warmup() throws IOException {
+        final Microwave.Builder builder = new Microwave.Builder().randomHttpPort().warmupIterations(5)
+                .warmup("POST", "/api/test/echo", "warm");
+        try (final Microwave microwave = new Microwave(builder).start()) {
+            assertFalse(microwave.isReady());
+            microwave.deployClasspath().warmup();
+            assertTrue(microwave.isReady());
+            assertEquals("5", IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/echo")));
+        }
+    }
+
+    @Test
+    public void configuration() {
+        final Properties config = new Properties();
+        config.setProperty("http", "${microwave.test.port}");
+        config.setProperty("cbor", "true");
+        config.setProperty("heapBudget", "256");
+        config.setProperty("connector.maxThreads", "16");
+        config.setProperty("warmup.health.path", "/health");
+        config.setProperty("securityConstraint.authRole", "user");
+        config.setProperty("securityConstraint.10.authRole", "admin");
+        config.setProperty("securityConstraint.2.collection", "api:/api/*:GET/POST");
+        config.setProperty("configurationCustomizer.offset", PortOffset.class.getName());
+        config.setProperty("configurationCustomizer.offset.offset", "10");
+        config.setProperty("warmup.nopath.method", "POST");
+        config.setProperty("unknown", "x");
+
+        final Microwave.Builder builder = new Microwave.Builder();
+        System.setProperty("microwave.test.port", "1234");
+        try {
+            assertEquals(asList("unknown", "warmup.nopath.method"), new ConfigurationBinder(builder).bind(config));
+        } finally {
+            System.clearProperty("microwave.test.port");
+        }
+        assertEquals("1234", config.getProperty("http"));
+        assertEquals(1244, builder.httpPort()); // customizers see the bound configuration
+        assertTrue(builder.cbor());
+        assertEquals(256, builder.heapBudget());
+        assertEquals("16", builder.properties().getProperty("connector.maxThreads"));
+        assertEquals("/health", builder.warmupRequests().iterator().next().getPath());
+        final List<Microwave.SecurityConstaintBuilder> constraints = new ArrayList<>(builder.securityConstraints());
+        assertEquals(3, constraints.size());
+        assertEquals("user", constraints.get(0).build().findAuthRoles()[0]);
+        assertEquals("/api/*", constraints.get(1).build().findCollections()[0].findPatterns()[0]);
+        assertEquals("admin", constraints.get(2).build().findAuthRoles()[0]);
+    }
+
+    @Test
+    public void asyncEvents() throws Exception {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort()).bake()) {
+            final String base = "http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/audit";
+            assertEquals("fired", ClientBuilder.newClient().target(base).request().post(Entity.text("login"), String.class));
+            assertEquals("true:login:POST /api/test/audit:acme", IOUtils.toString(new URL(base)));
+            assertEquals("true:login:destroyed=false", IOUtils.toString(new URL(base + "/dependent"))); // not the notified instance
+        }
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Collection<String> threads = new CopyOnWriteArrayList<>();
+        final Callable<Boolean> blocking = () -> {
+            release.await();
+            return threads.add(Thread.currentThread().getName());
+        };
+        try (final AsyncEventBus bus = new AsyncEventBus(null, getClass().getClassLoader(), 1, 2, 8)) {
+            bus.dispatch(blocking); // taken by the single worker
+            while (bus.getQueueDepth() > 0) {
+                Thread.sleep(10);
+            }
+            bus.dispatch(blocking);
+            bus.dispatch(blocking);
+            assertEquals(2, bus.getQueueDepth());
+            bus.dispatch(() -> threads.add(Thread.currentThread().getName())); // queue is full
+            assertEquals(1, bus.getCallerRuns());
+            release.countDown();
+            bus.close(TimeUnit.MINUTES.toMillis(1));
+            assertEquals(4, threads.size()); // queued events are delivered before close returns
+            bus.dispatch(() -> threads.add(Thread.currentThread().getName())); // closed, not queued
+            assertEquals(2, bus.getCallerRuns());
+        }
+        assertEquals(5, threads.size());
+        assertEquals(2, threads.stream().filter(t -> !t.startsWith("microwave-async-events-")).count());
+    }
+
+    @Test
+    public void deferredConnectors() throws Exception {
+        final File other = new File("target/MicrowaveTest/deferredConnectors/other");
+        FileUtils.mkDir(other);
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().deferConnectors(true)).start()) {
+            final int port = microwave.getConfiguration().httpPort();
+            try (final Socket socket = new Socket("localhost", port)) {
+                fail("connector shouldn't be bound yet");
+            } catch (final IOException expected) {
+                // ok
+            }
+            final CompletableFuture<Microwave> ready = microwave.whenReady().toCompletableFuture();
+            assertFalse(ready.isDone());
+
+            microwave.deployClasspath().deployAll(singletonMap("/other", other));
+            assertSame(microwave, ready.get(1, TimeUnit.MINUTES));
+            assertEquals("simple", IOUtils.toString(new URL("http://localhost:" + port + "/api/test")));
+        }
+    }
+
+    @Test
+    public void inProcess() {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort()).bake()) {
+            final InProcessResponse response = microwave.inProcess().invoke("GET", "/api/test");
+            assertEquals(200, response.getStatus());
+            assertEquals("simple", response.getBodyAsString());
+            assertTrue(response.getHeader("Content-Type").startsWith("text/plain"));
+
+            final Client client = ClientBuilder.newClient();
+            try {
+                final WebTarget target = client.target(microwave.getInProcessAddress()).path("api/test");
+                assertEquals("simple", target.request(MediaType.TEXT_PLAIN_TYPE).get(String.class));
+                assertEquals("{\"name\":\"test\"}", target.path("json").request(MediaType.APPLICATION_JSON_TYPE).get(String.class));
+                assertEquals("posted", target.path("echo").request(MediaType.TEXT_PLAIN_TYPE)
+                        .post(Entity.entity("posted", MediaType.TEXT_PLAIN_TYPE), String.class));
+                assertEquals(404, target.path("missing").request().get().getStatus());
+
+                try (final Microwave other = new Microwave(new Microwave.Builder().randomHttpPort()).bake()) {
+                    assertNotEquals(microwave.getInProcessAddress(), other.getInProcessAddress());
+                }
+                assertEquals("simple", target.request(MediaType.TEXT_PLAIN_TYPE).get(String.class)); // still registered
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void inProcessDestination() {
+        final Bus bus = BusFactory.newInstance().createBus();
+        final JAXRSServerFactoryBean factory = new JAXRSServerFactoryBean();
+        factory.setBus(bus);
+        factory.setAddress("microwave://inProcessDestination/rs");
+        factory.setServiceBeans(singletonList(new InProcessResource()));
+        final Server server = factory.create();
+        final Client client = ClientBuilder.newClient();
+        try {
+            final WebTarget target = client.target("microwave://inProcessDestination/rs").path("resource");
+            assertEquals("in-process:GET", target.request(MediaType.TEXT_PLAIN_TYPE).get(String.class));
+            assertEquals("in-process:posted", target.request(MediaType.TEXT_PLAIN_TYPE)
+                    .post(Entity.entity("posted", MediaType.TEXT_PLAIN_TYPE), String.class));
+            assertEquals(404, target.path("missing").request().get().getStatus());
+        } finally {
+            client.close();
+            server.destroy();
+            bus.shutdown(true);
+        }
+    }
+
+    @Test
+    public void lazyInit() throws Exception {
+        final ProvidedLoader loader = new ProvidedLoader(Thread.currentThread().getContextClassLoader());
+        final File docBase = new File("target/MicrowaveTest/lazyInit");
+        FileUtils.mkDir(docBase);
+        final AtomicReference<org.apache.catalina.Context> context = new AtomicReference<>();
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().lazyInit(true)).start()
+                .deployWebapp("", docBase, c -> {
+                    c.setLoader(loader);
+                    context.set(c);
+                })) {
+            final LazyWebBeansListener listener = LazyWebBeansListener.class.cast(context.get().getServletContext().getAttribute(LazyWebBeansListener.ATTRIBUTE));
+            assertFalse(listener.isInitialized());
+
+            final String base = "http://localhost:" + microwave.getConfiguration().httpPort();
+            final ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                final Collection<Future<String>> responses = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    responses.add(pool.submit(() -> IOUtils.toString(new URL(base + "/api/test"))));
+                }
+                for (final Future<String> response : responses) {
+                    assertEquals("simple", response.get(1, TimeUnit.MINUTES));
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            assertTrue(listener.isInitialized());
+        }
+    }
+
+    @Test
+    public void lazyInitFailure() throws Exception {
+        final ProvidedLoader loader = new ProvidedLoader(Thread.currentThread().getContextClassLoader());
+        final File docBase = new File("target/MicrowaveTest/lazyInitFailure");
+        FileUtils.mkDir(docBase);
+        final AtomicReference<org.apache.catalina.Context> context = new AtomicReference<>();
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().lazyInit(true)).start()
+                .deployWebapp("", docBase, c -> {
+                    c.setLoader(loader);
+                    context.set(c);
+                })) {
+            final LazyWebBeansListener listener = LazyWebBeansListener.class.cast(context.get().getServletContext().getAttribute(LazyWebBeansListener.ATTRIBUTE));
+            final AtomicInteger attempts = new AtomicInteger();
+            listener.onInit(() -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("broken");
+            });
+
+            final URL url = new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test");
+            for (int i = 0; i < 3; i++) {
+                assertEquals(500, HttpURLConnection.class.cast(url.openConnection()).getResponseCode());
+            }
+            assertEquals(1, attempts.get()); // not booted again on the next requests
+            assertFalse(listener.isInitialized());
+        }
+    }
+
+    @Test
+    public void lookupCache() throws IOException {
+        final ProvidedLoader loader = new ProvidedLoader(Thread.currentThread().getContextClassLoader());
+        final File docBase = new File("target/MicrowaveTest/lookupCache");
+        FileUtils.mkDir(docBase);
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort()).start()
+                .deployWebapp("", docBase, c -> c.setLoader(loader))) {
+            final LookupCacheClassLoader cache = loader.getClassLoader();
+            assertEquals(cache.toString(), 0, cache.getCachedEntries()); // cleared once the context started
+            assertEquals("simple", IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test")));
+            assertTrue(cache.toString(), cache.getSavedLookups() > 0);
+        }
+
+        final LookupCacheClassLoader bounded = new LookupCacheClassLoader(Thread.currentThread().getContextClassLoader(), 2);
+        for (int i = 0; i < 5; i++) {
+            assertNull(bounded.getResource("missing-" + i));
+        }
+        assertEquals(2, bounded.getCachedEntries());
+    }
+
+    @Test
+    public void minimalFootprint() throws IOException {
+        final ProvidedLoader loader = new ProvidedLoader(Thread.currentThread().getContextClassLoader());
+        final File docBase = new File("target/MicrowaveTest/minimalFootprint");
+        FileUtils.mkDir(docBase);
+        final AtomicReference<org.apache.catalina.Context> context = new AtomicReference<>();
+        final Microwave.Builder builder = new Microwave.Builder().randomHttpPort().minimalFootprint(true);
+        try (final Microwave microwave = new Microwave(builder).start()
+                .deployWebapp("", docBase, c -> {
+                    c.setLoader(loader);
+                    context.set(c);
+                })
+                .warmup()) {
+            assertFalse(org.apache.catalina.core.StandardContext.class.cast(context.get()).isUseNaming());
+            assertFalse(context.get().getResources().isCachingAllowed());
+            assertEquals("simple", IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test")));
+
+            final Microwave.FootprintReport report = microwave.footprint();
+            assertTrue(report.toString(), report.getLoadedClasses() > 0);
+        }
+    }
+
+    @Test
+    public void heapBudget() throws IOException, InterruptedException { // in its own JVM: this one holds what the other tests left
+        final Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                // surefire can run the tests from a manifest only jar, the scanning needs the real entries
+                "-cp", System.getProperty("surefire.test.class.path", System.getProperty("java.class.path")), FootprintMain.class.getName())
+                .redirectErrorStream(true).start();
+        final String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+        assertEquals(output, 0, process.waitFor());
+        assertTrue(output, output.contains("simple"));
+        assertTrue(output, output.contains("Footprint: "));
+        assertFalse(output, output.contains("Footprint over the heap budget"));
+    }
+
+    @Test
+    public void heapBudgetExceeded() throws IOException {
+        final Collection<String> warnings = new CopyOnWriteArrayList<>();
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                if (record.getLevel() == Level.WARNING) {
+                    warnings.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+                // no-op
+            }
+
+            @Override
+            public void close() {
+                // no-op
+            }
+        };
+        final Logger logger = Logger.getLogger(Microwave.class.getName());
+        logger.addHandler(handler);
+        try (final Microwave ignored = new Microwave(new Microwave.Builder().randomHttpPort().minimalFootprint(true).heapBudget(1)).bake()) {
+            assertTrue(warnings.toString(), warnings.stream().anyMatch(w -> w.startsWith("Footprint over the heap budget of 1MB: ")));
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+
+    @Test
+    public void http2() throws IOException {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().http2(true).http2MaxConcurrentStreams(42)).bake();
+             final Socket socket = new Socket("localhost", microwave.getConfiguration().httpPort())) {
+            socket.setSoTimeout(60000);
+            final OutputStream out = socket.getOutputStream();
+            out.write(("GET /api/test HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade, HTTP2-Settings\r\nUpgrade: h2c\r\n"
+                    + "HTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.write(new byte[]{0, 0, 0, 4, 0, 0, 0, 0, 0}); // empty settings
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            final StringBuilder headers = new StringBuilder();
+            while (!headers.toString().endsWith("\r\n\r\n")) {
+                headers.append((char) in.read());
+            }
+            assertTrue(headers.toString(), headers.toString().startsWith("HTTP/1.1 101"));
+
+            final int length = (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+            assertEquals(4, in.readUnsignedByte()); // server SETTINGS frame
+            in.readUnsignedByte(); // flags
+            in.readInt(); // stream
+            long maxConcurrentStreams = -1;
+            for (int i = 0; i < length / 6; i++) {
+                final int id = in.readUnsignedShort();
+                final long value = in.readInt() & 0xFFFFFFFFL;
+                if (id == 3) {
+                    maxConcurrentStreams = value;
+                }
+            }
+            assertEquals(42, maxConcurrentStreams);
+
+            // the upgrade request is answered on stream 1
+            final StringBuilder body = new StringBuilder();
+            int flags = 0;
+            while ((flags & 1) == 0) { // until END_STREAM of a DATA frame
+                final int frameLength = (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+                final int type = in.readUnsignedByte();
+                final int frameFlags = in.readUnsignedByte();
+                final int stream = in.readInt();
+                final byte[] payload = new byte[frameLength];
+                in.readFully(payload);
+                if (type == 0 && stream == 1) {
+                    body.append(new String(payload, StandardCharsets.UTF_8));
+                    flags = frameFlags;
+                }
+            }
+            assertEquals("simple", body.toString());
+        }
+    }
+
+    @Test
+    public void http2OverTls() throws Exception {
+        final File keystore = new File("target/MicrowaveTest/http2OverTls/keystore.jks");
+        FileUtils.removeDir(keystore.getParentFile());
+        FileUtils.mkDir(keystore.getParentFile());
+        keystore(keystore, "localhost");
+
+        final Microwave.Builder builder = new Microwave.Builder().randomHttpPort().ssl(true).http2(true)
+                .keystoreFile(keystore.getAbsolutePath()).keystorePass("microwave").keyAlias("microwave");
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            builder.httpsPort(socket.getLocalPort());
+        }
+        try (final Microwave microwave = new Microwave(builder).bake()) {
+            // without tomcat-native tomcat 8.5.6 ignores ALPN and the client stays on HTTP/1.1
+            assertEquals(AprLifecycleListener.isAprAvailable() ? "h2" : "", alpn(builder.httpsPort()));
+        }
+    }
+
+    @Test
+    public void batch() throws IOException {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().batchMapping("/batch")).bake()) {
+            final HttpURLConnection connection = HttpURLConnection.class.cast(
+                    new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/batch").openConnection());
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (final OutputStream os = connection.getOutputStream()) {
+                os.write(("[{\"id\":\"echo\",\"method\":\"POST\",\"path\":\"/api/test/echo\",\"body\":\"batched\"}," +
+                        "{\"id\":\"count\",\"path\":\"/api/test/echo\",\"after\":[\"echo\"]}," +
+                        "{\"id\":\"json\",\"path\":\"/api/test/json\"}," +
+                        "{\"id\":\"missing\",\"path\":\"/api/missing\"}," +
+                        "{\"id\":\"nested\",\"method\":\"POST\",\"path\":\"//./batch;x=y\",\"body\":[]}," +
+                        "{\"id\":\"async\",\"path\":\"/api/async\"}]").getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(200, connection.getResponseCode());
+            try (final JsonReader reader = Json.createReader(connection.getInputStream())) {
+                final JsonArray responses = reader.readArray();
+                assertEquals(6, responses.size());
+                assertEquals(400, responses.getJsonObject(4).getInt("status"));
+                assertEquals(501, responses.getJsonObject(5).getInt("status")); // no empty 200 for async resources
+                assertEquals("echo", responses.getJsonObject(0).getString("id"));
+                assertEquals("batched", responses.getJsonObject(0).getString("body"));
+                assertEquals("1", responses.getJsonObject(1).getString("body"));
+                assertEquals("test", responses.getJsonObject(2).getJsonObject("body").getString("name"));
+                assertEquals(404, responses.getJsonObject(3).getInt("status"));
+            }
+
+            final HttpURLConnection invalid = HttpURLConnection.class.cast(
+                    new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/batch").openConnection());
+            invalid.setRequestMethod("POST");
+            invalid.setDoOutput(true);
+            try (final OutputStream os = invalid.getOutputStream()) {
+                os.write("[{\"id\":1,\"path\":\"/api/test\",\"headers\":{\"X\":2}}]".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(400, invalid.getResponseCode());
+
+            for (final String path : asList("/../other/api", "/api/%2e%2e/..;x/other", "api/test")) { // out of the batch context
+                final HttpURLConnection outside = HttpURLConnection.class.cast(
+                        new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/batch").openConnection());
+                outside.setRequestMethod("POST");
+                outside.setDoOutput(true);
+                try (final OutputStream os = outside.getOutputStream()) {
+                    os.write(("[{\"path\":\"" + path + "\"}]").getBytes(StandardCharsets.UTF_8));
+                }
+                assertEquals(path, 400, outside.getResponseCode());
+            }
+
+            // sub-requests keep the client of the batch for access control
+            final HttpServletRequest origin = HttpServletRequest.class.cast(Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getRemoteAddr":
+                                return "10.1.2.3";
+                            case "getRemoteHost":
+                                return "client.example.com";
+                            case "getScheme":
+                                return "https";
+                            case "isSecure":
+                                return true;
+                            case "getServerPort":
+                                return 8443;
+                            default:
+                                return null;
+                        }
+                    }));
+            assertEquals("10.1.2.3 https true 8443", microwave.inProcess()
+                    .invoke("GET", "/api/test/remote", singletonMap("Accept", singletonList("text/plain")), null, origin).getBodyAsString());
+        }
+    }
+
+    @Test
+    public void batchTimeout() throws IOException {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().batchMapping("/batch").batchTimeout(50)).bake()) {
+            final HttpURLConnection connection = HttpURLConnection.class.cast(
+                    new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/batch").openConnection());
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (final OutputStream os = connection.getOutputStream()) {
+                os.write("[{\"id\":\"slow\",\"path\":\"/api/test/slow\"}]".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(200, connection.getResponseCode());
+            try (final JsonReader reader = Json.createReader(connection.getInputStream())) {
+                assertEquals(504, reader.readArray().getJsonObject(0).getInt("status"));
+            }
+        }
+    }
+
+    @Test
+    public void keystoreReload() throws Exception {
+        final File keystore = new File("target/MicrowaveTest/keystoreReload/keystore.jks");
+        FileUtils.removeDir(keystore.getParentFile());
+        FileUtils.mkDir(keystore.getParentFile());
+        keystore(keystore, "first");
+
+        final Microwave.Builder builder = new Microwave.Builder().randomHttpPort().ssl(true)
+                .keystoreFile(keystore.getAbsolutePath()).keystorePass("microwave").keyAlias("microwave")
+                .sslSessionCacheSize(100).sslSessionTimeout(60).keystoreWatchInterval(100);
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            builder.httpsPort(socket.getLocalPort());
+        }
+        try (final Microwave microwave = new Microwave(builder).bake()) {
+            assertEquals("CN=first", peer(builder.httpsPort()));
+
+            final File update = new File(keystore.getParentFile(), "update.jks");
+            keystore(update, "second");
+            Files.move(update.toPath(), keystore.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (int i = 0; i < 100 && !"CN=second".equals(peer(builder.httpsPort())); i++) {
+                Thread.sleep(100);
+            }
+            assertEquals("CN=second", peer(builder.httpsPort()));
+        }
+    }
+
+    @Test
+    public void accessLog() throws IOException, InterruptedException {
+        final File logs = new File("target/MicrowaveTest/accessLog");
+        FileUtils.removeDir(logs);
+        final StringBuilder longQuery = new StringBuilder("q=");
+        for (int i = 0; i < 70000; i++) { // longer than the writer buffer
+            longQuery.append('x');
+        }
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().accessLog(true)
+                .property("connector.attributes.maxHttpHeaderSize", "100000")
+                .property("accessLog.directory", logs.getAbsolutePath())).bake()) {
+            IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test?" + longQuery));
+            IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test?q=1"));
+            for (int i = 0; i < 100; i++) { // the entries are logged after the responses are sent and written asynchronously
+                final File[] files = logs.listFiles();
+                if (files != null && files.length == 1 && files[0].length() > 0
+                        && new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8).contains("q=1 ")) {
+                    break;
+                }
+                Thread.sleep(50);
+            }
+        }
+        final File[] files = logs.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        final String log = new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8);
+        assertTrue(log, log.contains("\"GET /api/test?q=1 HTTP/1.1\" 200 6 "));
+        final int longEntry = log.indexOf("?q=xxx");
+        final String truncated = log.substring(log.lastIndexOf('\n', longEntry) + 1, log.indexOf('\n', longEntry) + 1);
+        assertTrue(truncated.endsWith("x...\n"));
+        assertEquals(64 * 1024, truncated.length());
+    }
+
+    @Test
+    public void slowRequests() throws IOException {
+        final File logs = new File("target/MicrowaveTest/slowRequests");
+        FileUtils.removeDir(logs);
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().slowRequestThreshold(100)
+                .logDir(logs.getAbsolutePath())
+                .property("slowRequest.sampleInterval", "20")
+                .property("slowRequest.endpointPatterns", "/api/test/slow/named-{name}")).bake()) {
+            final String base = "http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test";
+            assertEquals("simple", IOUtils.toString(new URL(base))); // first request, can be slow (lazy init)
+            IOUtils.toString(new URL(base + "/connection"));
+            assertEquals("slow", IOUtils.toString(new URL(base + "/slow")));
+            for (final String id : asList("1", "2", "named-a", "named-b")) {
+                assertEquals("slow", IOUtils.toString(new URL(base + "/slow/" + id)));
+            }
+        } // report written on stop, close() only deletes the base
+        final File[] files = logs.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        final String report = '\n' + new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8);
+        assertTrue(report, report.contains("\nGET /api/test/slow;"));
+        assertTrue(report, report.contains(";org.apache.microwave.app.Endpoint.slow;java.lang.Thread.sleep "));
+        assertFalse(report, report.contains("\nGET /api/test/connection;"));
+        assertTrue(report, report.contains("\nGET /api/test/slow/{id};")); // one endpoint whatever the id
+        assertTrue(report, report.contains("\nGET /api/test/slow/named-{name};"));
+        assertFalse(report, report.contains("/slow/1") || report.contains("/slow/named-a"));
+    }
+
+    @Test
+    public void jfrEvents() throws IOException {
+        assumeTrue(MicrowaveEvents.isAvailable());
+        final File dump = new File("target/MicrowaveTest/jfrEvents.jfr");
+        dump.getParentFile().mkdirs();
+        try (final Recording recording = new Recording()) {
+            for (final String event : asList("Request", "Deployment", "CdiBoot", "BusLoad", "Connector")) {
+                recording.enable("org.apache.microwave." + event);
+            }
+            recording.start();
+            try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().jfrEvents(true)).bake()) {
+                assertEquals("simple", IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test")));
+                microwave.pause().resume();
+            }
+            recording.stop();
+            recording.dump(dump.toPath());
+        }
+        final Map<String, RecordedEvent> events = new HashMap<>();
+        for (final RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+            events.put(event.getEventType().getName().substring("org.apache.microwave.".length())
+                    + (event.hasField("action") ? "." + event.getString("action") : ""), event);
+        }
+        assertEquals(new HashSet<>(asList("Request", "Deployment", "CdiBoot", "BusLoad", "Connector.pause", "Connector.resume")), events.keySet());
+        assertEquals("/api/test", events.get("Request").getString("path"));
+        assertEquals(200, events.get("Request").getInt("status"));
+        assertEquals("", events.get("Deployment").getString("context"));
+    }
+
+    @Test
+    public void redeploy() throws Exception {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort()).bake()) {
+            final String base = "http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test";
+            final Client client = ClientBuilder.newClient();
+            try {
+                final WebTarget echo = client.target(base).path("echo");
+                echo.request().post(Entity.entity("a", MediaType.TEXT_PLAIN_TYPE), String.class);
+                assertEquals("1", echo.request(MediaType.TEXT_PLAIN_TYPE).get(String.class));
+
+                final Collection<Integer> statuses = new ArrayList<>();
+                final CompletableFuture<Void> done = new CompletableFuture<>();
+                final Thread traffic = new Thread(() -> {
+                    while (!done.isDone()) {
+                        try {
+                            final HttpURLConnection connection = HttpURLConnection.class.cast(new URL(base).openConnection());
+                            statuses.add(connection.getResponseCode());
+                            IOUtils.toString(connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream());
+                        } catch (final IOException e) {
+                            statuses.add(-1);
+                        }
+                    }
+                });
+                traffic.start();
+                microwave.redeployClasspath("");
+                done.complete(null);
+                traffic.join();
+
+                assertFalse(statuses.isEmpty());
+                assertEquals(singletonList(200), statuses.stream().distinct().collect(toList()));
+                assertEquals("0", echo.request(MediaType.TEXT_PLAIN_TYPE).get(String.class)); // new CDI container
+
+                // undeploy drains the slow request but new requests are no more routed to the context
+                final CompletableFuture<Integer> slow = CompletableFuture.supplyAsync(
+                        () -> client.target(base).path("slow").request().get().getStatus());
+                Thread.sleep(100);
+                final Thread undeploy = new Thread(() -> microwave.undeploy(""));
+                undeploy.start();
+                Thread.sleep(50);
+                assertEquals(404, client.target(base).request().get().getStatus());
+                assertEquals(200, slow.get().intValue());
+                undeploy.join();
+                assertEquals(404, client.target(base).request().get().getStatus());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void drain() throws Exception {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().shutdownTimeout(5000)).bake();
+             final Socket keepAlive = new Socket("localhost", microwave.getConfiguration().httpPort())) {
+            keepAlive.setSoTimeout(60000);
+            assertFalse(httpGet(keepAlive).contains("Connection: close"));
+
+            final URL slow = new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/slow");
+            final CompletableFuture<String> inProgress = CompletableFuture.supplyAsync(() -> connectionAndBody(slow));
+            Thread.sleep(100);
+
+            final Microwave.DrainReport timedOut = microwave.drain(10);
+            assertEquals(0, timedOut.getDrained());
+            assertEquals(1, timedOut.getAborted());
+
+            final Microwave.DrainReport report = microwave.drain(5000);
+            assertEquals(1, report.getDrained());
+            assertEquals(0, report.getAborted());
+            assertEquals("close:slow", inProgress.get()); // in progress when the draining started
+
+            // established connections are served and asked to close, new ones are not accepted anymore
+            assertTrue(httpGet(keepAlive).contains("Connection: close"));
+            try (final Socket socket = new Socket("localhost", microwave.getConfiguration().httpPort())) {
+                socket.setSoTimeout(500);
+                httpGet(socket);
+                fail("connection accepted while draining");
+            } catch (final SocketTimeoutException e) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void drainAsync() throws Exception {
+        final File docBase = new File("target/MicrowaveTest/drainAsync");
+        FileUtils.mkDir(docBase);
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().shutdownTimeout(5000)).start()
+                .deployWebapp("", docBase, c -> {
+                    c.setLoader(new ProvidedLoader(Thread.currentThread().getContextClassLoader()));
+                    Tomcat.addServlet(c, "twice-async", new TwiceAsyncServlet()).setAsyncSupported(true);
+                    c.addServletMappingDecoded("/twice-async", "twice-async");
+                })) {
+            final URL url = new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/twice-async");
+            final CompletableFuture<String> inProgress = CompletableFuture.supplyAsync(() -> connectionAndBody(url));
+            Thread.sleep(300); // dispatched and async again
+
+            final Microwave.DrainReport timedOut = microwave.drain(10);
+            assertEquals(1, timedOut.getAborted());
+
+            final Microwave.DrainReport report = microwave.drain(5000);
+            assertEquals(1, report.getDrained());
+            assertEquals(0, report.getAborted());
+            assertEquals("close:async", inProgress.get());
+        }
+    }
+
+    private static String connectionAndBody(final URL url) {
+        try {
+            final HttpURLConnection connection = HttpURLConnection.class.cast(url.openConnection());
+            try (final InputStream in = connection.getInputStream()) {
+                return connection.getHeaderField("Connection") + ":" + IOUtils.toString(in);
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String httpGet(final Socket socket) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write("GET /api/test HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        final InputStream in = socket.getInputStream();
+        final StringBuilder headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            headers.append((char) in.read());
+        }
+        final String response = headers.toString();
+        final int length = Integer.parseInt(response.replaceAll("(?s).*Content-Length: (\\d+).*", "$1"));
+        for (int i = 0; i < length; i++) {
+            in.read();
+        }
+        return response;
+    }
+
+    @Test
+    public void cbor() throws IOException {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().cbor(true)).bake()) {
+            final Client client = ClientBuilder.newClient().register(new CborProvider<>());
+            try {
+                final WebTarget target = client.target("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test");
+                final Response response = target.path("cbor").request(CborProvider.MEDIA_TYPE_TYPE)
+                        .post(Entity.entity(new Simple("cbor"), CborProvider.MEDIA_TYPE_TYPE));
+                assertEquals(CborProvider.MEDIA_TYPE, response.getMediaType().toString());
+                assertEquals("cbor!", response.readEntity(Simple.class).getName());
+                assertEquals("{\"name\":\"json!\"}", target.path("cbor").request(MediaType.APPLICATION_JSON_TYPE)
+                        .post(Entity.entity("{\"name\":\"json\"}", MediaType.APPLICATION_JSON_TYPE), String.class));
+                assertEquals("client!", target.path("cbor/client").request(MediaType.TEXT_PLAIN_TYPE).get(String.class));
+            } finally {
+                client.close();
+            }
+        }
+
+        final JsonObject value = Json.createObjectBuilder()
+                .add("text", "h\u00e9llo \ud83d\ude00")
+                .add("numbers", Json.createArrayBuilder()
+                        .add(0).add(23).add(24).add(-1).add(-25).add(65536).add(Long.MAX_VALUE).add(Long.MIN_VALUE)
+                        .add(new BigInteger("18446744073709551615")).add(new BigInteger("-98765432109876543210987654321"))
+                        .add(0.5).add(1.1).add(new BigDecimal("12345678901234567890.123456789")))
+                .add("flags", Json.createArrayBuilder().add(true).add(false).addNull())
+                .add("nested", Json.createObjectBuilder().add("empty", Json.createObjectBuilder()).add("list", Json.createArrayBuilder()))
+                .build();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CborFactory factory = new CborFactory();
+        try (final JsonGenerator generator = factory.createGenerator(out)) {
+            generator.write(value);
+        }
+        assertTrue(out.size() < value.toString().getBytes(StandardCharsets.UTF_8).length);
+        try (final JsonReader reader = factory.createReader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(value, reader.readObject());
+        }
+
+        // unknown tags (here 6) keep their content but can't be nested without limit
+        try (final JsonReader reader = factory.createReader(new ByteArrayInputStream(new byte[]{(byte) 0xC6, (byte) 0xC6, (byte) 0x80}))) {
+            assertEquals(0, reader.readArray().size());
+        }
+        final byte[] tags = new byte[100000];
+        Arrays.fill(tags, (byte) 0xC6);
+        try (final JsonReader reader = factory.createReader(new ByteArrayInputStream(tags))) {
+            reader.read();
+            fail("tags nested over the limit");
+        } catch (final JsonException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("More than 512 nested"));
+        }
+    }
+
+    @Test
+    public void adaptiveThreads() throws Exception {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().adaptiveThreads(true)
+                .property("adaptiveExecutor.minThreads", "2")
+                .property("adaptiveExecutor.step", "2")
+                .property("adaptiveExecutor.interval", "100")).bake()) {
+            final AdaptiveExecutor executor = microwave.getAdaptiveExecutor();
+            assertEquals(2, executor.getCorePoolSize());
+
+            final URL slow = new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/slow");
+            final ExecutorService clients = Executors.newFixedThreadPool(16);
+            try {
+                final Collection<Future<String>> responses = new ArrayList<>();
+                for (int i = 0; i < 48; i++) {
+                    responses.add(clients.submit(() -> IOUtils.toString(slow)));
+                }
+                for (final Future<String> response : responses) {
+                    assertEquals("slow", response.get());
+                }
+            } finally {
+                clients.shutdownNow();
+            }
+            assertTrue(executor.getLargestPoolSize() > 2); // sleeping requests waited in the queue, more threads helped
+            assertTrue(executor.getAdjustments() > 0);
+            assertTrue(executor.getCompletedTaskCount() > 0);
+
+            final ObjectName mbean = new ObjectName("Tomcat:type=Executor,name=microwave-adaptive");
+            assertEquals(executor.getLargestPoolSize(), ManagementFactory.getPlatformMBeanServer().getAttribute(mbean, "largestPoolSize"));
+
+            for (int i = 0; i < 100 && executor.getCorePoolSize() > 2; i++) { // idle, threads are released
+                Thread.sleep(100);
+            }
+            assertEquals(2, executor.getCorePoolSize());
+        }
+    }
+
+    @Test
+    public void boundedSessions() throws Exception {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().maxSessions(2)).bake()) {
+            final String url = "http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/session";
+            final String first = IOUtils.toString(new URL(url));
+            assertEquals(first, session(url, first));
+            IOUtils.toString(new URL(url));
+            final String third = IOUtils.toString(new URL(url));
+            assertEquals(third, session(url, third));
+            assertNotEquals(first, session(url, first)); // evicted
+
+            final ExecutorService pool = Executors.newFixedThreadPool(16);
+            try {
+                final Collection<Future<String>> creations = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    creations.add(pool.submit(() -> IOUtils.toString(new URL(url))));
+                }
+                for (final Future<String> creation : creations) {
+                    creation.get();
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            // sessions of the requests in progress are never evicted so the peak is bounded by the concurrency
+            final ObjectName manager = new ObjectName("Tomcat:type=Manager,host=localhost,context=/");
+            final int peak = Integer.class.cast(ManagementFactory.getPlatformMBeanServer().getAttribute(manager, "maxActive"));
+            assertTrue(Integer.toString(peak), peak <= 2 + 16);
+            // then admissions evict what is no more in use (the last requests can be recycled after their response)
+            final long end = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+            do {
+                IOUtils.toString(new URL(url));
+            } while (!Integer.valueOf(2).equals(ManagementFactory.getPlatformMBeanServer().getAttribute(manager, "activeSessions"))
+                    && System.currentTimeMillis() < end);
+            assertEquals(2, ManagementFactory.getPlatformMBeanServer().getAttribute(manager, "activeSessions"));
+        }
+    }
+
+    @Test
+    public void statelessSessions() throws Exception {
+        try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort().statelessSessions(true)).bake()) {
+            final HttpURLConnection connection = HttpURLConnection.class.cast(
+                    new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/session").openConnection());
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("stateless", IOUtils.toString(connection.getInputStream()));
+            assertNull(connection.getHeaderField("Set-Cookie"));
+            final ObjectName manager = new ObjectName("Tomcat:type=Manager,host=localhost,context=/");
+            assertEquals(1, ManagementFactory.getPlatformMBeanServer().getAttribute(manager, "rejectedSessions"));
+        }
+    }
+
+    @Test
+    public void persistentSessions() throws IOException {
+        final File store = new File("target/MicrowaveTest/persistentSessions");
+        FileUtils.removeDir(store);
+        final Microwave.Builder builder = new Microwave.Builder().randomHttpPort().sessionStore(store.getAbsolutePath());
+        final String id;
+        try (final Microwave microwave = new Microwave(builder).bake()) {
+            id = IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/session"));
+        }
+        try (final Microwave microwave = new Microwave(builder).bake()) {
+            assertEquals(id, session("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test/session", id));
+            try {
+                microwave.redeployClasspath("");
+                fail("both versions would share the store");
+            } catch (final IllegalStateException ise) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void mappedSessionStore() throws IOException {
+        final File file = new File("target/MicrowaveTest/mappedSessionStore/ROOT.sessions");
+        FileUtils.removeDir(file.getParentFile());
+        final MappedSessionStore store = new MappedSessionStore(file);
+        store.open();
+        store.save("a", System.currentTimeMillis(), 60, true, "first".getBytes(StandardCharsets.UTF_8));
+        store.save("expired", 0, 1, false, new byte[0]);
+        for (int i = 0; i < 3; i++) { // grows the initial 1MB mapping
+            store.save("big", System.currentTimeMillis(), 60, true, new byte[600 * 1024]);
+        }
+        store.close();
+        assertNull(store.load("a")); // closed
+
+        store.open(); // reopened as on a context restart
+        try {
+            assertEquals(new HashSet<>(asList("a", "expired", "big")), new HashSet<>(store.keys()));
+            assertEquals("first", new String(store.load("a"), StandardCharsets.UTF_8));
+            assertEquals(600 * 1024, store.load("big").length);
+            assertEquals(singletonList("expired"), store.expired(System.currentTimeMillis()));
+            assertFalse(store.hasAttributes("expired"));
+            assertTrue(store.hasAttributes("a"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void keystore(final File keystore, final String cn) throws IOException, InterruptedException {
+        final Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getAbsolutePath(),
+                "-genkeypair", "-alias", "microwave", "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=" + cn, "-validity", "1",
+                "-keystore", keystore.getAbsolutePath(), "-storepass", "microwave", "-keypass", "microwave", "-storetype", "JKS")
+                .redirectErrorStream(true).start();
+        IOUtils.toString(process.getInputStream());
+        assertEquals(0, process.waitFor());
+    }
+
+    private static String alpn(final int port) throws Exception {
+        try (final SSLSocket socket = SSLSocket.class.cast(trustAll().getSocketFactory().createSocket("localhost", port))) {
+            final SSLParameters parameters = socket.getSSLParameters();
+            parameters.setApplicationProtocols(new String[]{"h2", "http/1.1"});
+            socket.setSSLParameters(parameters);
+            socket.startHandshake();
+            return socket.getApplicationProtocol();
+        }
+    }
+
+    // new context each time to get a full handshake and not a resumed session
+    private static String peer(final int port) throws Exception {
+        try (final SSLSocket socket = SSLSocket.class.cast(trustAll().getSocketFactory().createSocket("localhost", port))) {
+            socket.startHandshake();
+            return X509Certificate.class.cast(socket.getSession().getPeerCertificates()[0]).getSubjectX500Principal().getName();
+        }
+    }
+
+    private static SSLContext trustAll() throws Exception {
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+                // no-op
+            }
+
+            @Override
+            public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+                // no-op
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return context;
+    }
+
+    @Vetoed
+    @Path("resource")
+    public static class InProcessResource {
+        @GET
+        @Produces(MediaType.TEXT_PLAIN)
+        public String get() {
+            return "in-process:GET";
+        }
+
+        @POST
+        @Consumes(MediaType.TEXT_PLAIN)
+        @Produces(MediaType.TEXT_PLAIN)
+        public String post(final String body) {
+            return "in-process:" + body;
+        }
+    }
+
+    // starts async, dispatches then starts async again: a request which lives across two startAsync()
+    public static class TwiceAsyncServlet extends HttpServlet {
+        @Override
+        protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) {
+            final boolean dispatched = req.getDispatcherType() == DispatcherType.ASYNC;
+            final AsyncContext context = req.startAsync();
+            new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                    if (dispatched) {
+                        context.getResponse().getWriter().write("async");
+                        context.complete();
+                    } else {
+                        context.dispatch();
+                    }
+                } catch (final InterruptedException | IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }).start();
+        }
+    }
+
+    public static class FootprintMain {
+        public static void main(final String[] args) throws IOException {
+            try (final Microwave microwave = new Microwave(new Microwave.Builder().randomHttpPort()
+                    .minimalFootprint(true).heapBudget(256)).bake()) { // bake() logs the footprint against the budget
+                System.out.println(IOUtils.toString(new URL("http://localhost:" + microwave.getConfiguration().httpPort() + "/api/test")));
+            }
+        }
+    }
+
+    public static class PortOffset implements Microwave.ConfigurationCustomizer {
+        private int offset;
+
+        public void setOffset(final int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void customize(final Microwave.Builder configuration) {
+            configuration.httpPort(configuration.httpPort() + offset);
+        }
+    }
+
+    private static String session(final String url, final String id) throws IOException {
+        final URLConnection connection = new URL(url).openConnection();
+        connection.setRequestProperty("Cookie", "JSESSIONID=" + id);
+        try (final InputStream is = connection.getInputStream()) {
+            return IOUtils.toString(is);
+        }
+    }
 }
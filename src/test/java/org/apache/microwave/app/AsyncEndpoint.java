@@ -0,0 +1,20 @@
+package org.apache.microwave.app;
+
+import javax.enterprise.context.Dependent;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import java.util.concurrent.CompletableFuture;
+
+@Path("async")
+@Dependent // a normal scoped proxy loses the @Suspended parameter annotation
+public class AsyncEndpoint {
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public void async(@Suspended final AsyncResponse response) {
+        CompletableFuture.runAsync(() -> response.resume("async"));
+    }
+}
@@ -0,0 +1,26 @@
+package org.apache.microwave.app;
+
+import org.apache.microwave.event.Async;
+import org.apache.microwave.event.AsyncEventContext;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@ApplicationScoped
+public class AuditObserver {
+    private final BlockingQueue<String> audits = new LinkedBlockingQueue<>();
+
+    @Async
+    public void audit(@Observes final Endpoint.Simple event) {
+        final AsyncEventContext context = AsyncEventContext.current();
+        audits.add(Thread.currentThread().getName().startsWith("microwave-async-events-") + ":" + event.getName()
+                + ":" + context.getMethod() + " " + context.getRequestUri() + ":" + context.getAttribute("tenant"));
+    }
+
+    public String next() throws InterruptedException {
+        return audits.poll(1, TimeUnit.MINUTES);
+    }
+}
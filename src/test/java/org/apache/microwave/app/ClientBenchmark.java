@@ -0,0 +1,84 @@
+package org.apache.microwave.app;
+
+import org.apache.microwave.cxf.ClientFactory;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriInfo;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// calls GET /test from threads concurrent callers with the injected ClientFactory (shared pooled conduit)
+// then with a client per call, what services did before: {"calls":..,"pooledMs":..,"perCallMs":..,"pooledCalls":..,"latency":".."}
+@Path("benchmark/client")
+@Dependent // a normal scoped proxy loses the parameter annotations
+public class ClientBenchmark {
+    @Inject
+    private ClientFactory clients;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public JsonObject run(@Context final UriInfo uriInfo,
+                          @QueryParam("calls") @DefaultValue("200") final int calls,
+                          @QueryParam("threads") @DefaultValue("4") final int threads) throws InterruptedException, ExecutionException {
+        final URI target = uriInfo.getBaseUriBuilder().path("test").build();
+        final Runnable pooledCall = () -> clients.target(target).request(MediaType.TEXT_PLAIN_TYPE).get(String.class);
+        final Runnable perClientCall = () -> {
+            final Client client = ClientBuilder.newClient();
+            try {
+                client.target(target).request(MediaType.TEXT_PLAIN_TYPE).get(String.class);
+            } finally {
+                client.close();
+            }
+        };
+        final int warmup = Math.max(1, calls / 10); // not counted, loads classes and opens the pooled connections
+        measure(warmup, threads, pooledCall);
+        measure(warmup, threads, perClientCall);
+        final long warmupCalls = clients.getLatencies().values().stream().mapToLong(ClientFactory.Latency::getCount).sum();
+
+        final long pooled = measure(calls, threads, pooledCall);
+        final long perCall = measure(calls, threads, perClientCall);
+        final ClientFactory.Latency latency = clients.getLatencies().get(target.getScheme() + "://" + target.getHost() + ':' + target.getPort());
+        return Json.createObjectBuilder()
+                .add("calls", calls)
+                .add("pooledMs", pooled)
+                .add("perCallMs", perCall)
+                .add("pooledCalls", latency.getCount() - warmupCalls)
+                .add("latency", latency.toString()) // warmup included
+                .build();
+    }
+
+    private static long measure(final int calls, final int threads, final Runnable call) throws InterruptedException, ExecutionException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final Collection<Future<?>> futures = new ArrayList<>(calls);
+            final long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                futures.add(pool.submit(call));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.apache.microwave.app;
+
+import org.apache.microwave.event.Async;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Observes;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@Dependent
+public class DependentAuditObserver {
+    private static final BlockingQueue<String> AUDITS = new LinkedBlockingQueue<>();
+
+    private volatile boolean destroyed;
+
+    @Async
+    public void audit(@Observes final Endpoint.Simple event) {
+        AUDITS.add(Thread.currentThread().getName().startsWith("microwave-async-events-") + ":" + event.getName() + ":destroyed=" + destroyed);
+    }
+
+    @PreDestroy
+    void destroy() {
+        destroyed = true;
+    }
+
+    public static String next() throws InterruptedException {
+        return AUDITS.poll(1, TimeUnit.MINUTES);
+    }
+}
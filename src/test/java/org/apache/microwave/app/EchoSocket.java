@@ -0,0 +1,36 @@
+package org.apache.microwave.app;
+
+import org.apache.microwave.websocket.BatchingSender;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.Dependent;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Dependent
+@ServerEndpoint("/echo")
+public class EchoSocket {
+    public static final AtomicInteger DESTROYED = new AtomicInteger();
+
+    @Inject // always resolvable, this class is on the test classpath of every deployment
+    private BeanManager beanManager;
+
+    @OnMessage
+    public void onMessage(final String message, final Session session) throws IOException {
+        try (final BatchingSender sender = new BatchingSender(session)) {
+            for (final String part : message.split(",")) {
+                sender.send((beanManager != null ? "simple" : "not injected") + ":" + part);
+            }
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        DESTROYED.incrementAndGet();
+    }
+}
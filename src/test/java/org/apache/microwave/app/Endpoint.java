@@ -3,16 +3,41 @@ package org.apache.microwave.app;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.apache.microwave.cbor.CborProvider;
+import org.apache.microwave.cxf.ClientFactory;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriInfo;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Path("test")
 @ApplicationScoped
 public class Endpoint {
+    @Inject
+    private ClientFactory clients;
+
+    @Inject
+    private Event<Simple> audit;
+
+    @Inject
+    private AuditObserver auditObserver;
+
+    private final AtomicInteger echoes = new AtomicInteger();
+
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     public String simple() {
@@ -26,6 +51,112 @@ public class Endpoint {
         return new Simple("test");
     }
 
+    @GET
+    @Path("session")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String session(@Context final HttpServletRequest request) {
+        final HttpSession session = request.getSession();
+        return session == null ? "stateless" : session.getId();
+    }
+
+    @GET
+    @Path("client")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String client(@Context final UriInfo uriInfo) {
+        final String value = clients.target(uriInfo.getBaseUri()).path("test").request(MediaType.TEXT_PLAIN_TYPE).get(String.class);
+        return value + ":" + clients.getLatencies().values().iterator().next().getCount();
+    }
+
+    @GET
+    @Path("client/connection")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String clientConnection(@Context final UriInfo uriInfo) {
+        return clients.target(uriInfo.getBaseUri()).path("test/connection").request(MediaType.TEXT_PLAIN_TYPE).get(String.class);
+    }
+
+    @GET
+    @Path("connection")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String connection(@HeaderParam("Connection") final String connection) {
+        return connection;
+    }
+
+    @POST
+    @Path("echo")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String echo(final String body) {
+        echoes.incrementAndGet();
+        return body;
+    }
+
+    @GET
+    @Path("echo")
+    @Produces(MediaType.TEXT_PLAIN)
+    public int echoes() {
+        return echoes.get();
+    }
+
+    @POST
+    @Path("cbor")
+    @Consumes({MediaType.APPLICATION_JSON, CborProvider.MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, CborProvider.MEDIA_TYPE})
+    public Simple cbor(final Simple simple) {
+        return new Simple(simple.getName() + "!");
+    }
+
+    @GET
+    @Path("cbor/client")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String cborClient(@Context final UriInfo uriInfo) {
+        return clients.target(uriInfo.getBaseUri()).path("test/cbor").request(CborProvider.MEDIA_TYPE_TYPE)
+                .post(Entity.entity(new Simple("client"), CborProvider.MEDIA_TYPE_TYPE), Simple.class).getName();
+    }
+
+    @GET
+    @Path("remote")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String remote(@Context final HttpServletRequest request) {
+        return request.getRemoteAddr() + " " + request.getScheme() + " " + request.isSecure() + " " + request.getServerPort();
+    }
+
+    @GET
+    @Path("slow")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String slow() throws InterruptedException {
+        Thread.sleep(300);
+        return "slow";
+    }
+
+    @GET
+    @Path("slow/{id}")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String slow(@PathParam("id") final String id) throws InterruptedException {
+        return slow();
+    }
+
+    @POST
+    @Path("audit")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String audit(@Context final HttpServletRequest request, final String name) {
+        request.setAttribute("tenant", "acme");
+        audit.fire(new Simple(name));
+        return "fired";
+    }
+
+    @GET
+    @Path("audit")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String audited() throws InterruptedException {
+        return auditObserver.next();
+    }
+
+    @GET
+    @Path("audit/dependent")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String dependentAudited() throws InterruptedException {
+        return DependentAuditObserver.next();
+    }
+
     @Data
     @AllArgsConstructor
     @NoArgsConstructor
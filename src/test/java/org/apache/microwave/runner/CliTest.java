@@ -0,0 +1,77 @@
+package org.apache.microwave.runner;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.cxf.helpers.FileUtils;
+import org.apache.microwave.Microwave;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CliTest {
+    @Test
+    public void options() {
+        final Properties properties = Cli.toProperties(new String[]{"--http=1234", "--host", "foo", "--ssl", "--properties.a=b"});
+        assertEquals("1234", properties.getProperty("http"));
+        assertEquals("foo", properties.getProperty("host"));
+        assertEquals("true", properties.getProperty("ssl"));
+        assertEquals("b", properties.getProperty("properties.a"));
+    }
+
+    @Test
+    public void cdsTrainingArgs() {
+        final Properties options = Cli.toProperties(new String[]{
+                "--cds-archive", "app.jsa", "--cds-benchmark", "3", "--http", "1234", "--cds-warmup=/api/test", "--ssl"});
+        assertEquals(asList("--cds-warmup=/api/test", "--http=1234", "--ssl=true", "--cds-run"), CdsTraining.trainingArgs(options));
+
+        final Properties forked = Cli.toProperties(CdsTraining.trainingArgs(options).toArray(new String[0]));
+        assertEquals("1234", forked.getProperty("http"));
+        assertNull(forked.getProperty("cds-archive"));
+        assertEquals("true", forked.getProperty(CdsTraining.RUN));
+    }
+
+    @Test
+    public void create() throws IOException {
+        final int port;
+        try (final ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        try (final Microwave microwave = Cli.create(new String[]{"--http", Integer.toString(port)})) {
+            assertEquals(port, microwave.getConfiguration().httpPort());
+            assertEquals("simple", IOUtils.toString(new URL("http://localhost:" + port + "/api/test")));
+        }
+    }
+
+    @Test
+    public void indexedLoader() throws Exception {
+        final File lib = new File("target/CliTest/lib");
+        FileUtils.removeDir(lib);
+        FileUtils.mkDir(lib);
+        final File junit = new File(Test.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Files.copy(junit.toPath(), new File(lib, "junit.jar").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        IndexedClassLoader.writeIndex(lib);
+        assertTrue(IndexedClassLoader.readIndex(new File(lib, IndexedClassLoader.INDEX)).get("junit.jar").contains("org/junit"));
+
+        try (final IndexedClassLoader loader = IndexedClassLoader.create(lib, emptyList(), ClassLoader.getSystemClassLoader().getParent())) {
+            final Class<?> test = loader.loadClass(Test.class.getName());
+            assertSame(loader, test.getClassLoader());
+            assertNotNull(test.getPackage());
+            assertNotNull(loader.getResource("org/junit/Test.class"));
+            assertNull(loader.getResource("org/junit/Missing.class"));
+            assertNull(loader.getResource("org/missing/Test.class"));
+        }
+    }
+}